@@ -0,0 +1,63 @@
+/* Copyright (c) 2014 Peter Rimshnick
+ * See the file license.txt for copying permission.
+ */
+package pmr.threes;
+
+/** Fixed set of boards used by the benchmarks, grouped by stage of game
+ * @author Peter Rimshnick
+ *
+ */
+public final class BenchmarkCorpus {
+
+	/** Seed used for all random choices made by benchmarks */
+	public static final long SEED = 0;
+
+	/** Mostly empty boards from the first few moves of a game */
+	static final int[][][] EARLY = {
+		{{0,1,3,3},{3,2,0,1},{2,0,0,1},{0,0,0,1}},
+		{{1,0,0,2},{0,3,0,0},{2,0,3,1},{0,0,0,3}},
+		{{0,3,0,0},{1,0,2,0},{0,0,3,0},{2,1,0,3}},
+	};
+
+	/** Half full boards with medium sized tiles */
+	static final int[][][] MID = {
+		{{0,0,0,2},{3,48,48,12},{1,3,384,0},{2,0,0,3}},
+		{{1,3,6,0},{2,12,24,3},{0,6,48,1},{0,0,3,2}},
+		{{0,2,3,1},{3,6,12,0},{96,24,6,3},{0,1,0,2}},
+	};
+
+	/** Crowded boards close to end of game */
+	static final int[][][] LATE = {
+		{{12,3,2,1},{48,2,12,3},{96,6,96,2},{3,24,3,3}},
+		{{1,3,6,12},{2,48,24,3},{384,96,12,1},{3,6,2,0}},
+		{{3,1,12,2},{24,6,2,48},{192,768,3,6},{1,12,3,2}},
+	};
+
+	private BenchmarkCorpus(){}
+
+	/** Gets boards of given stage
+	 * @param stage early, mid or late
+	 * @return boards of that stage
+	 */
+	static int[][][] boards(String stage){
+		if (stage.equals("early")) return EARLY;
+		if (stage.equals("mid")) return MID;
+		if (stage.equals("late")) return LATE;
+		throw new IllegalArgumentException("Unknown stage: " + stage);
+	}
+
+	/** Creates start states for boards of given stage. Card stacks are generated from {@link #SEED}
+	 * @param stage early, mid or late
+	 * @return start states
+	 */
+	static State[] states(String stage){
+		ThreesGame.rand.setSeed(SEED);
+		int[][][] boards = boards(stage);
+		State[] states = new State[boards.length];
+		for (int i = 0; i<boards.length; i++){
+			states[i] = new State(boards[i], new RegularHoleCard(1+i%3));
+		}
+		return states;
+	}
+
+}
@@ -0,0 +1,27 @@
+/* Copyright (c) 2014 Peter Rimshnick
+ * See the file license.txt for copying permission.
+ */
+package pmr.threes;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/** Runs benchmarks with allocation profiling (gc.alloc.rate.norm is bytes/op).
+ * Takes the usual JMH command line options, e.g. a regexp selecting benchmarks.
+ * @author Peter Rimshnick
+ *
+ */
+public class BenchmarkMain {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		new Runner(new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}
+
+}
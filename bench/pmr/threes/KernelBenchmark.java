@@ -0,0 +1,92 @@
+/* Copyright (c) 2014 Peter Rimshnick
+ * See the file license.txt for copying permission.
+ */
+package pmr.threes;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Microbenchmarks of row combination, leaf evaluation, and the random parts of the game
+ * @author Peter Rimshnick
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class KernelBenchmark {
+
+	@Param({"early", "mid", "late"})
+	public String stage;
+
+	private int[][] rows;
+	private pmr.threes.State[] states;
+	private pmr.threes.State[][] endStates;
+	private ThreesGame game;
+	private Evaluator evaluator;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp(){
+		states = BenchmarkCorpus.states(stage);
+		rows = new int[states.length*4][];
+		endStates = new pmr.threes.State[states.length][];
+		for (int i = 0; i<states.length; i++){
+			int[][] boardArray = states[i].getBoard().getBoardArray();
+			for (int j = 0; j<4; j++){
+				rows[i*4+j] = boardArray[j];
+			}
+			endStates[i] = new Left(states[i]).findEndStatesForSim();
+		}
+		game = new ThreesGame(1, .39, .47, .14, 0);
+		evaluator = game.getEvaluator().forRoot(states[0].getBoard());
+	}
+
+	@Setup(Level.Iteration)
+	public void resetRandom(){
+		ThreesGame.rand.setSeed(BenchmarkCorpus.SEED);
+	}
+
+	@Benchmark
+	public int[] combineLeft(){
+		int[] row = rows[next];
+		next = (next+1)%rows.length;
+		return AbstractMove.combineLeft(row);
+	}
+
+	@Benchmark
+	public double evaluateState(){
+		pmr.threes.State s = states[next];
+		next = (next+1)%states.length;
+		return game.evaluateState(evaluator, s);
+	}
+
+	@Benchmark
+	public Deck generateCardStack(){
+		pmr.threes.State s = states[next];
+		next = (next+1)%states.length;
+		return ThreesGame.generateCardStack(s.getBoard());
+	}
+
+	@Benchmark
+	public pmr.threes.State pickState(){
+		pmr.threes.State[] s = endStates[next];
+		next = (next+1)%endStates.length;
+		return ThreesGame.pickState(s);
+	}
+
+}
@@ -0,0 +1,99 @@
+/* Copyright (c) 2014 Peter Rimshnick
+ * See the file license.txt for copying permission.
+ */
+package pmr.threes;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Microbenchmarks of move generation
+ * @author Peter Rimshnick
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MoveBenchmark {
+
+	@Param({"early", "mid", "late"})
+	public String stage;
+
+	@Param({"L", "R", "U", "D"})
+	public String direction;
+
+	private AbstractMove[] moves;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp(){
+		pmr.threes.State[] states = BenchmarkCorpus.states(stage);
+		moves = new AbstractMove[states.length];
+		for (int i = 0; i<states.length; i++){
+			moves[i] = move(direction, states[i]);
+		}
+	}
+
+	/** Creates move from its name
+	 * @param direction L, R, U or D
+	 * @param state start state
+	 * @return move
+	 */
+	static AbstractMove move(String direction, pmr.threes.State state){
+		switch (direction){
+		case "L": return new Left(state);
+		case "R": return new Right(state);
+		case "U": return new Up(state);
+		case "D": return new Down(state);
+		default: throw new IllegalArgumentException("Unknown direction: " + direction);
+		}
+	}
+
+	private AbstractMove nextMove(){
+		AbstractMove m = moves[next];
+		next = (next+1)%moves.length;
+		return m;
+	}
+
+	@Benchmark
+	public List<pmr.threes.State> getStep1States(){
+		AbstractMove m = nextMove();
+		return m.getStep1States(m.previousState);
+	}
+
+	@Benchmark
+	public pmr.threes.State[] findEndStatesForSearch(){
+		return nextMove().findEndStatesForSearch();
+	}
+
+	@Benchmark
+	public pmr.threes.State[] findEndStatesForSim(){
+		return nextMove().findEndStatesForSim();
+	}
+
+	@Benchmark
+	public void outcomes(Blackhole blackhole){
+		Outcomes outcomes = nextMove().outcomes(new SplittableRandom(BenchmarkCorpus.SEED), 1);
+		for (pmr.threes.State s = outcomes.next(); s!=null; s = outcomes.next()){
+			blackhole.consume(s);
+		}
+	}
+
+}
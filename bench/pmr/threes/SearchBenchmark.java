@@ -0,0 +1,74 @@
+/* Copyright (c) 2014 Peter Rimshnick
+ * See the file license.txt for copying permission.
+ */
+package pmr.threes;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** End to end benchmark of {@link ThreesGame#findBestMove(pmr.threes.State)} over the corpus.
+ * Each invocation searches every board of the chosen stage once. The transposition table is
+ * cleared before each invocation so it only helps within a search.
+ * @author Peter Rimshnick
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+
+	@Param({"3", "4", "5", "6", "7"})
+	public int depth;
+
+	@Param({"early", "mid", "late"})
+	public String stage;
+
+	@Param({"4194304"})
+	public long tableBytes;
+
+	private pmr.threes.State[] states;
+	private ThreesGame game;
+
+	@Setup(Level.Trial)
+	public void setUp(){
+		states = BenchmarkCorpus.states(stage);
+		game = new ThreesGame(depth, .39, .47, .14, tableBytes);
+		game.setSeed(BenchmarkCorpus.SEED);
+	}
+
+	@Setup(Level.Invocation)
+	public void reset(){
+		if (game.getTranspositionTable()!=null) game.getTranspositionTable().clear();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		game.close();
+	}
+
+	@Benchmark
+	public double findBestMove(){
+		double total = 0;
+		for (pmr.threes.State s: states){
+			total += game.findBestMove(s).getValue();
+		}
+		return total;
+	}
+
+}
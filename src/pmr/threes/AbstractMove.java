@@ -3,15 +3,10 @@
  */
 package pmr.threes;
 
-import static pmr.threes.ThreesGame.oneAndTwo;
-
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.SplittableRandom;
 
 /** Abstract skeleton for {@link Move}. Provides methods common to most implementations.
  * @author Peter Rimshnick
@@ -33,11 +28,28 @@ public abstract class AbstractMove implements Move {
 	 * @see pmr.threes.Move#findEndStatesForSearch()
 	 */
 	@Override
-	public State[] findEndStatesForSearch() {		
+	public State[] findEndStatesForSearch() {
+		return findEndStatesForSearch(defaultRandom());
+	}
+
+	/* (non-Javadoc)
+	 * @see pmr.threes.Move#findEndStatesForSearch(java.util.SplittableRandom)
+	 */
+	@Override
+	public State[] findEndStatesForSearch(SplittableRandom random) {
+		return findEndStatesForSearch(random, 1);
+	}
+
+	/* (non-Javadoc)
+	 * @see pmr.threes.Move#findEndStatesForSearch(java.util.SplittableRandom, int)
+	 */
+	@Override
+	public State[] findEndStatesForSearch(SplittableRandom random, int samples) {		
 		List<State> step1States = getStep1States(previousState);
 		List<State> newStates;
 		if (step1States.size()!=1 || step1States.get(0)!=previousState) {
-			newStates = updateHoleCardForSearch(step1States);
+			if (samples==SamplingPolicy.EXACT) newStates = updateHoleCardForSim(step1States, random);
+			else newStates = updateHoleCardForSearch(step1States, random, samples);
 		}
 		else newStates = new ArrayList<State>(Arrays.asList(new State[]{previousState}));		
 		return newStates.toArray(new State[newStates.size()]);
@@ -47,77 +59,110 @@ public abstract class AbstractMove implements Move {
 	 * @see pmr.threes.Move#findEndStatesForSim()
 	 */
 	@Override
-	public State[] findEndStatesForSim() {		
+	public State[] findEndStatesForSim() {
+		return findEndStatesForSim(defaultRandom());
+	}
+
+	/* (non-Javadoc)
+	 * @see pmr.threes.Move#findEndStatesForSim(java.util.SplittableRandom)
+	 */
+	@Override
+	public State[] findEndStatesForSim(SplittableRandom random) {		
 		List<State> step1States = getStep1States(previousState);
 		List<State> newStates;
 		if (step1States.size()!=1 || step1States.get(0)!=previousState) {
-			newStates = updateHoleCardForSim(step1States);
+			newStates = updateHoleCardForSim(step1States, random);
 		}
 		else newStates = new ArrayList<State>(Arrays.asList(new State[]{previousState}));		
 		return newStates.toArray(new State[newStates.size()]);
 	}
 
-	/** Copies array
-	 * @param fromArray
-	 * @param toArray
+	/** Merges outcomes with same board, hole card and card stack into one outcome with their summed
+	 * probability. Order of first occurrences is kept.
+	 * @param states possible outcomes of a move
+	 * @return merged outcomes, or given array if all outcomes are distinct
 	 */
-	protected static void copyInto(int[] fromArray, int[] toArray){
-		System.arraycopy(fromArray, 0, toArray, 0, fromArray.length);
+	static State[] mergeDuplicates(State[] states){
+		int n = states.length;
+		if (n<2) return states;
+		long[] boards = new long[n];
+		int[] codes = new int[n];
+		State[] merged = null;
+		int size = 0;
+		for (int i = 0; i<n; i++){
+			State s = states[i];
+			long board = s.getBoard().getPackedBoard();
+			int code = TranspositionTable.stateCode(s);
+			int j = 0;
+			while (j<size && (boards[j]!=board || codes[j]!=code)) j++;
+			if (j<size){
+				if (merged==null) merged = Arrays.copyOf(states, n);
+				State d = merged[j];
+				merged[j] = new State(d, d.getCardStack(), d.getHoleCard(), d.getProbability()+s.getProbability());
+				continue;
+			}
+			boards[size] = board;
+			codes[size] = code;
+			if (merged!=null) merged[size] = s;
+			size++;
+		}
+		return merged==null? states : Arrays.copyOf(merged, size);
 	}
 
-	/** Copies array board rep
-	 * @param board
-	 * @return copy of board rep
+	/** Random stream used when none is given, derived from previous state and move with seed 0, as
+	 * a search would
+	 * @return random stream
 	 */
-	protected static int[][] copyBoard(int[][] board){
-		return Board.deepCopy(board);
+	private SplittableRandom defaultRandom(){
+		return new SplittableRandom(SearchContext.streamSeed(0, previousState, TranspositionTable.moveCode(this)));
 	}
 
-	/** Returns version of card stack with given card removed
-	 * @param stack cards not played yet
-	 * @param h card to be removed
-	 * @return new version of stack rep with given card removed
+	/** Removes random card from deck
+	 * @param stack deck of remaining cards
+	 * @param random source of randomness
+	 * @return random card to be next {@link HoleCard}
 	 */
-	protected static Map<HoleCard, Integer> subtractKey(Map<HoleCard, Integer> stack, HoleCard h){
-		Map<HoleCard, Integer> newMap = new HashMap<HoleCard, Integer>(stack);
-		int count = stack.get(h);
-		assert count>0;
-		if (count==1) {
-			newMap.remove(h);			
-		}
-		else {
-			newMap.put(h, count-1);		
-		}
-		return newMap;
+	protected static HoleCard getRandomCard(Deck stack, SplittableRandom random){
+		return stack.cardAt(random.nextInt(stack.size()));
 	}
 
-	/** Removes random card from deck
+	/** Replaces deck by a newly generated one if it is empty
 	 * @param stack deck of remaining cards
-	 * @return random card to be next {@link HoleCard}
+	 * @param board board new deck is generated for
+	 * @param random source of randomness
+	 * @return given deck, or new deck if it was empty
 	 */
-	protected static HoleCard getRandomCard(Map<HoleCard, Integer> stack){
-		List<HoleCard> expanded = new ArrayList<HoleCard>();
-		for (Entry<HoleCard, Integer> e: stack.entrySet()){
-			for (int i = 0; i<e.getValue(); i++){
-				expanded.add(e.getKey());
-			}
-		}
-		Collections.shuffle(expanded);
-		return expanded.get(0);
+	protected static Deck refill(Deck stack, Board board, SplittableRandom random){
+		return stack.isEmpty()? ThreesGame.generateCardStack(board, random) : stack;
 	}
 
 	/** Given new possible states stemming from move only, create states based on possible hole cards
 	 * Uses monte-carlo selection of new state, rather than creating all possible states,
 	 * which limits space size for search and makes problem tractable
 	 * @param step1States possible states based on current move choice and new card insertion
+	 * @param random source of randomness
 	 * @return monte-carlo creation of new states based on random selection of hole card
 	 */
-	protected List<State> updateHoleCardForSearch(List<State> step1States){
-		List<State> step2States = new ArrayList<State>();		
-		for (State s: step1States){			
-			HoleCard h = getRandomCard(s.getCardStack());
-			step2States.add(new State(s.getBoard(), subtractKey(s.getCardStack(),h), h, s.getProbability()));
+	protected List<State> updateHoleCardForSearch(List<State> step1States, SplittableRandom random){
+		return updateHoleCardForSearch(step1States, random, 1);
+	}
 
+	/** Given new possible states stemming from move only, create states based on given number of hole
+	 * cards drawn at random, with replacement, for each. Each drawn card gets an equal share of the probability
+	 * @param step1States possible states based on current move choice and new card insertion
+	 * @param random source of randomness
+	 * @param samples number of cards drawn for each state
+	 * @return monte-carlo creation of new states based on random selection of hole cards
+	 */
+	protected List<State> updateHoleCardForSearch(List<State> step1States, SplittableRandom random, int samples){
+		List<State> step2States = new ArrayList<State>(step1States.size()*samples);		
+		for (State s: step1States){			
+			double probability = s.getProbability()/samples;
+			for (int k = 0; k<samples; k++){
+				HoleCard h = getRandomCard(s.getCardStack(), random);
+				Deck stack = refill(s.getCardStack().remove(h), s.getBoard(), random);
+				step2States.add(new State(s, stack, h, probability));
+			}
 		}
 		return step2States;
 	}
@@ -126,18 +171,19 @@ public abstract class AbstractMove implements Move {
 	 * Creates all possible states, unlike {@link updateHoleCardForSearch} which chooses one
 	 * possible state per original state via monte-carlo 
 	 * @param step1States possible states based on current move choice and new card insertion
+	 * @param random source of randomness for new card stack
 	 * @return all possible new states based on different values of hole card
 	 */
-	protected List<State> updateHoleCardForSim(List<State> step1States){
+	protected List<State> updateHoleCardForSim(List<State> step1States, SplittableRandom random){
 		List<State> step2States = new ArrayList<State>();		
 		for (State s: step1States){
-			int cardCount = 0;
-			for (HoleCard h: s.getCardStack().keySet()) {
-				cardCount+=s.getCardStack().get(h);
-			}
-			for (Entry<HoleCard, Integer> e: s.getCardStack().entrySet()){				
-				HoleCard h = e.getKey();
-				step2States.add(new State(s.getBoard(), subtractKey(s.getCardStack(),h), h, (s.getProbability() * e.getValue())/cardCount));
+			Deck stack = s.getCardStack();
+			int cardCount = stack.size();
+			for (int kind = 0; kind<Deck.KINDS; kind++){
+				int count = stack.count(kind);
+				if (count==0) continue;
+				Deck newStack = refill(stack.remove(kind), s.getBoard(), random);
+				step2States.add(new State(s, newStack, stack.card(kind), (s.getProbability() * count)/cardCount));
 			}
 		}
 		return step2States;
@@ -150,43 +196,7 @@ public abstract class AbstractMove implements Move {
 	 * @return new version of row after combination
 	 */
 	protected static int[] combineLeft(int[] row) {
-		if (row.length==1) return row;
-		int[] newRow = new int[row.length];
-		if (row[0]!=0 && row[0]==row[1] && row[0]>2) {
-			newRow[0] = row[0]*2;
-			shiftLeft(row, newRow,2);
-			return newRow;
-		}
-		else if (row[0]!=0 && oneAndTwo(row[0],row[1])){
-			newRow[0] = 3;
-			shiftLeft(row, newRow,2);
-			return newRow;
-		}
-		else if (row[0]==0){
-			shiftLeft(row, newRow, 1);
-			return newRow;
-		}
-		else {
-			newRow[0] = row[0];
-			int[] rest = combineLeft(Arrays.copyOfRange(row, 1, row.length));
-			for (int i = 0; i < rest.length; i++){
-				newRow[i+1] = rest[i];
-			}
-			return newRow;
-		}
-	}
-
-	
-	/** Makes left shifted copy of row
-	 * @param row original row
-	 * @param newRow new row
-	 * @param start start index of copy
-	 */
-	protected static void shiftLeft(int[] row, int[] newRow, int start){
-		for (int i = start; i<row.length; i++){
-			newRow[i-1]=row[i];
-		}
-		newRow[row.length-1] = 0;		
+		return combine(row, MoveKernel.LEFT);
 	}
 
 	/** Does a right combination operation
@@ -194,45 +204,57 @@ public abstract class AbstractMove implements Move {
 	 * @return new version of row after combination
 	 */
 	protected static int[] combineRight(int[] row) {		
-		return reverse(combineLeft(reverse(row)));
+		return combine(row, MoveKernel.RIGHT);
 	}
 
-	/** Makes right shifted copy of row
-	 * @param row original row
-	 * @param newRow new row
-	 * @param start start index of copy
+	/** Combines row in array form by packing it and looking it up in given row table
+	 * @param row row to be combined
+	 * @param table {@link MoveKernel#LEFT} or {@link MoveKernel#RIGHT}
+	 * @return new version of row after combination
 	 */
-	protected static void shiftRight(int[] row, int[] newRow, int start){
-		for (int i = start; i>0; i--){
-			newRow[i+1]=row[i];
+	private static int[] combine(int[] row, int[] table) {
+		assert row.length==PackedBoard.SIZE;
+		int packedRow = 0;
+		for (int i = 0; i<row.length; i++){
+			packedRow |= PackedBoard.rankOf(row[i])<<(i<<2);
 		}
-		newRow[0] = 0;		
-	}		
+		int newPackedRow = table[packedRow] & MoveKernel.ROW_MASK;
+		int[] newRow = new int[row.length];
+		for (int i = 0; i<row.length; i++){
+			newRow[i] = PackedBoard.valueOf(PackedBoard.getCell(newPackedRow, i));
+		}
+		return newRow;
+	}
 
-	/** Simple array reversal
-	 * @param array
-	 * @return reversal of array
+	/** Combines every row of board using given row table, then creates states based on insertion
+	 * of hole card at given column of each modified row. Features of new states are derived from those
+	 * of start state (see {@link Successors})
+	 * @param startState start state
+	 * @param table {@link MoveKernel#LEFT} or {@link MoveKernel#RIGHT}
+	 * @param column column where hole card enters
+	 * @param transposed whether move works on columns rather than rows
+	 * @return list of new possible states
 	 */
-	protected static int[] reverse(int[] array){
-		int[] copy = new int[array.length];
-		for (int i = 0; i<array.length; i++){
-			copy[array.length-1-i] = array[i];
+	protected static List<State> shiftAndInsert(State startState, int[] table, int column, boolean transposed){
+		Successors successors = new Successors(startState, table, column, transposed, null, 1);
+		//if modified rows is empty, don't branch
+		if (!successors.isLegal()) return new ArrayList<State>(Arrays.asList(new State[]{startState}));
+		List<State> step1States = new ArrayList<State>(); //temporary states
+		for (State s = successors.nextPlacement(); s!=null; s = successors.nextPlacement()){
+			step1States.add(s);
 		}
-		return copy;
+		return step1States;
 	}
-	
-	/** Produces transpose of matrix
-	 * @param matrix
-	 * @return transpose of matrix
-	 */
-	protected static int[][] transpose(int[][] matrix){
-		int[][] newMatrix = new int[matrix[0].length][matrix.length];
-		for (int i = 0; i<matrix.length;i++){
-			for (int j = 0; j<matrix[0].length; j++){
-				newMatrix[j][i] = matrix[i][j];
-			}
-		}		
-		return newMatrix;
+
+	/** Finds possible ranks of hole card
+	 * @param holeCard
+	 * @return ranks the hole card can take on
+	 */
+	protected static int[] getHoleRanks(HoleCard holeCard){
+		if (holeCard instanceof RegularHoleCard){
+			return new int[]{PackedBoard.rankOf(((RegularHoleCard)holeCard).value)};
+		}
+		return ((AmbiguousHoleCard)holeCard).possibleRanks;
 	}
 
 	/** Returns set of possible states based on move and insertion of hole card into board only
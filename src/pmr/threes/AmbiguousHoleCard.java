@@ -13,12 +13,17 @@ import java.util.ArrayList;
 public class AmbiguousHoleCard implements HoleCard {
 	
 	private final List<Integer> possibleAdditions;
+	final int[] possibleRanks;
 
 	/** Constructs object with possible values
 	 * @param possibleAdditions all possible values for this card
 	 */
 	public AmbiguousHoleCard(List<Integer> possibleAdditions) {
-		this.possibleAdditions = possibleAdditions;
+		this.possibleAdditions = new ArrayList<Integer>(possibleAdditions);
+		this.possibleRanks = new int[possibleAdditions.size()];
+		for (int i = 0; i<possibleRanks.length; i++){
+			possibleRanks[i] = PackedBoard.rankOf(possibleAdditions.get(i));
+		}
 	}
 	
 	/** Returns list of possible values for this hole card
@@ -28,6 +33,16 @@ public class AmbiguousHoleCard implements HoleCard {
 		return new ArrayList<Integer>(possibleAdditions);
 	}
 	
+	@Override
+	public boolean equals(Object o){
+		return (o instanceof AmbiguousHoleCard) && ((AmbiguousHoleCard)o).possibleAdditions.equals(possibleAdditions);
+	}
+
+	@Override
+	public int hashCode(){
+		return possibleAdditions.hashCode();
+	}
+	
 	@Override
 	public String toString(){
 		return "+";
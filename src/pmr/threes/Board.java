@@ -5,20 +5,26 @@ package pmr.threes;
 
 import java.util.Arrays;
 
-/** Board representation based on dense matrix
+/** Board representation. Cells are stored packed into a single long, see {@link PackedBoard}
  * @author Peter Rimshnick
  *
  */
 public class Board {
 
-	private final int[][] board;
+	private final long board;
 
 	/** Construct board from 2-d input array
 	 * @param board
 	 */
 	public Board(int[][] board){
-		//this.board = deepCopy(board);
-		this.board = board;
+		this.board = PackedBoard.pack(board);
+	}
+
+	/** Construct board from packed rep
+	 * @param packedBoard board packed by {@link PackedBoard}
+	 */
+	public Board(long packedBoard){
+		this.board = packedBoard;
 	}
 
 	/** Produces copy of board
@@ -33,29 +39,35 @@ public class Board {
 		return result;
 	}
 
-	/** Returns underlying board. No defensive copy made for performance reasons
-	 * @return underlying board array
+	/** Returns board in array form. Array is unpacked on each call, so is safe to modify
+	 * @return board array
 	 */
 	public int[][] getBoardArray() {
-		//return deepCopy(board);
+		return PackedBoard.unpack(board);
+	}
+
+	/** Returns underlying packed board
+	 * @return board packed by {@link PackedBoard}
+	 */
+	public long getPackedBoard() {
 		return board;
 	}
 	
 	@Override
 	public boolean equals(Object o){
-		return (o instanceof Board) && (Arrays.deepEquals(((Board)o).board, board));
+		return (o instanceof Board) && ((Board)o).board==board;
 	}
 	
 	@Override
 	public int hashCode(){
-		return Arrays.hashCode(board);
+		return (int)(board ^ (board>>>32));
 	}
 
 	@Override
 	public String toString(){
 		StringBuilder s = new StringBuilder("");
 		s.append("\n");
-		for (int[] row: board){
+		for (int[] row: getBoardArray()){
 			s.append("|");
 			for (int n: row){
 				s.append(String.format("%6d", n));
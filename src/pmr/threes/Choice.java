@@ -10,22 +10,54 @@ package pmr.threes;
 public class Choice implements Comparable<Choice> {
 	private final Move move;
 	private final double value;	
+	private final int depth;
+	private final SearchStats stats;
 
 	/** Default constructor.
 	 * 
 	 */
 	private Choice(){
+		this(null);
+	};
+
+	/** Constructor of empty choice with given search statistics
+	 * @param stats statistics of search, or null
+	 */
+	private Choice(SearchStats stats){
 		move = null;
 		value = Double.NEGATIVE_INFINITY;		
-	};
+		depth = 0;
+		this.stats = stats;
+	}
 
 	/** Creates choice with given move and value
 	 * @param move
 	 * @param value
 	 */
 	public Choice(Move move, double value){
+		this(move, value, 0);
+	}
+
+	/** Creates choice with given move and value, found by search of given depth
+	 * @param move
+	 * @param value
+	 * @param depth depth of search that found this choice
+	 */
+	public Choice(Move move, double value, int depth){
+		this(move, value, depth, null);
+	}
+
+	/** Creates choice with given move and value, found by search of given depth
+	 * @param move
+	 * @param value
+	 * @param depth depth of search that found this choice
+	 * @param stats statistics of search that found this choice
+	 */
+	Choice(Move move, double value, int depth, SearchStats stats){
 		this.move = move;
 		this.value = value;		
+		this.depth = depth;
+		this.stats = stats;
 	}
 	
 	/** Sentinel value representing no choices
@@ -34,6 +66,10 @@ public class Choice implements Comparable<Choice> {
 	 */
 	private static class EmptyChoice extends Choice {
 		private EmptyChoice(){};
+
+		private EmptyChoice(SearchStats stats){
+			super(stats);
+		}
 		
 		@Override
 		public boolean isEmptyChoice() {
@@ -48,6 +84,14 @@ public class Choice implements Comparable<Choice> {
 		return new EmptyChoice();
 	}	
 
+	/** Creates empty choice returned by search with given statistics
+	 * @param stats statistics of search
+	 * @return empty choice
+	 */
+	static Choice getEmptyChoice(SearchStats stats){
+		return new EmptyChoice(stats);
+	}
+
 	/** Gets move associated with choice
 	 * @return move of this choice
 	 */
@@ -62,6 +106,20 @@ public class Choice implements Comparable<Choice> {
 		return value;
 	}
 	
+	/** Gets depth of search that found this choice
+	 * @return depth of search, or 0 if unknown
+	 */
+	public int getDepth() {
+		return depth;
+	}
+	
+	/** Gets statistics of search that found this choice
+	 * @return statistics of search, or null if choice is not the result of a search
+	 */
+	public SearchStats getStats() {
+		return stats;
+	}
+	
 	/** Indicates whether this is an empty choice
 	 * @return whether this choice is an {@link EmptyChoice} 
 	 */
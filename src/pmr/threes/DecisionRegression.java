@@ -0,0 +1,326 @@
+/* Copyright (c) 2014 Peter Rimshnick
+ * See the file license.txt for copying permission.
+ */
+package pmr.threes;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Replays a corpus of recorded positions through an engine and compares its decisions with the
+ * recorded ones, to check that a change to the engine keeps its decisions while making them faster.
+ * The corpus is a game log (see {@link GameLogWriter}), e.g. one written by {@link SelfPlay} with the
+ * reference version of the engine; each record gives a position, the reference move and value, and the
+ * reference decision time. Positions are rebuilt exactly as they were played, bonus hole cards included;
+ * logs of the first format version, which didn't keep the range of bonus cards, are rejected.
+ * <p>
+ * Positions are replayed concurrently, like the games of {@link SelfPlay}, so latencies are only
+ * comparable with a corpus recorded on the same machine with the same number of threads. With the same
+ * evaluator, depth and seed, an engine that is only faster should agree on every position, with value
+ * deltas of 0 up to rounding in the last bits (see {@link ThreesGame#setSeed(long)}).
+ * @author Peter Rimshnick
+ *
+ */
+public class DecisionRegression {
+
+	private final Engine game;
+	private final int threads;
+
+	/** Decision of engine on one position of corpus
+	 * @author Peter Rimshnick
+	 *
+	 */
+	public static class Result {
+		/** Recorded position and reference decision */
+		public final GameRecord reference;
+		/** Move code of move chosen, or {@link GameRecord#NO_MOVE} */
+		public final int move;
+		/** Value of move chosen, or NaN if there is no move */
+		public final double value;
+		/** Time taken to choose move, in nanoseconds */
+		public final long decisionNanos;
+
+		Result(GameRecord reference, int move, double value, long decisionNanos){
+			this.reference = reference;
+			this.move = move;
+			this.value = value;
+			this.decisionNanos = decisionNanos;
+		}
+
+		/** Indicates whether engine chose reference move
+		 * @return true if moves match
+		 */
+		public boolean isMatch(){
+			return move==reference.getMove();
+		}
+
+		/** Gets change of value of chosen move from reference value
+		 * @return value minus reference value, 0 if neither has a move, or NaN if only one does
+		 */
+		public double getValueDelta(){
+			if (Double.isNaN(value) && Double.isNaN(reference.getValue())) return 0;
+			return value - reference.getValue();
+		}
+
+		/** Gets decision time relative to reference decision time
+		 * @return ratio of decision times, below 1 if faster, or NaN if reference time was 0
+		 */
+		public double getLatencyRatio(){
+			long ref = reference.getDecisionNanos();
+			return ref>0? (double)decisionNanos/ref : Double.NaN;
+		}
+
+		@Override
+		public String toString(){
+			return String.format(Locale.ROOT, "game %d: %s %s/%s delta %.4f latency x%.3f", reference.getGame(), new Board(reference.getBoard()),
+					moveName(move), moveName(reference.getMove()), getValueDelta(), getLatencyRatio());
+		}
+	}
+
+	/** Aggregate comparison over corpus
+	 * @author Peter Rimshnick
+	 *
+	 */
+	public static class Summary {
+		/** Results of individual positions, in order of corpus */
+		public final List<Result> results;
+		/** Wall clock time taken to replay corpus, in nanoseconds */
+		public final long elapsedNanos;
+		private final double[] absValueDeltas;
+		private final double[] latencyRatios;
+
+		Summary(List<Result> results, long elapsedNanos){
+			this.results = results;
+			this.elapsedNanos = elapsedNanos;
+			double[] deltas = new double[results.size()];
+			double[] ratios = new double[results.size()];
+			int d = 0, r = 0;
+			for (Result result: results){
+				double delta = result.getValueDelta();
+				if (!Double.isNaN(delta)) deltas[d++] = Math.abs(delta);
+				double ratio = result.getLatencyRatio();
+				if (!Double.isNaN(ratio)) ratios[r++] = ratio;
+			}
+			absValueDeltas = Arrays.copyOf(deltas, d);
+			latencyRatios = Arrays.copyOf(ratios, r);
+			Arrays.sort(absValueDeltas);
+			Arrays.sort(latencyRatios);
+		}
+
+		/** Gets number of positions where engine chose reference move
+		 * @return number of matches
+		 */
+		public int getMatches(){
+			int matches = 0;
+			for (Result r: results){
+				if (r.isMatch()) matches++;
+			}
+			return matches;
+		}
+
+		/** Gets fraction of positions where engine chose reference move
+		 * @return agreement rate, between 0 and 1
+		 */
+		public double getAgreementRate(){
+			return results.isEmpty()? Double.NaN : (double)getMatches()/results.size();
+		}
+
+		/** Gets mean change of value of chosen move from reference value
+		 * @return mean value delta, over positions where both have a move
+		 */
+		public double getMeanValueDelta(){
+			double sum = 0;
+			int n = 0;
+			for (Result r: results){
+				double delta = r.getValueDelta();
+				if (Double.isNaN(delta)) continue;
+				sum += delta;
+				n++;
+			}
+			return n==0? Double.NaN : sum/n;
+		}
+
+		/** Gets largest absolute change of value of chosen move from reference value
+		 * @return max absolute value delta
+		 */
+		public double getMaxAbsValueDelta(){
+			return absValueDeltas.length==0? Double.NaN : absValueDeltas[absValueDeltas.length-1];
+		}
+
+		/** Gets total reference decision time over total decision time
+		 * @return speedup, above 1 if faster
+		 */
+		public double getSpeedup(){
+			long reference = 0, replayed = 0;
+			for (Result r: results){
+				reference += r.reference.getDecisionNanos();
+				replayed += r.decisionNanos;
+			}
+			return replayed>0? (double)reference/replayed : Double.NaN;
+		}
+
+		/** Gets given percentile of per position latency ratios
+		 * @param p percentile, between 0 and 1
+		 * @return latency ratio at percentile, below 1 if faster
+		 */
+		public double getLatencyRatioPercentile(double p){
+			return SelfPlay.Summary.percentile(latencyRatios, p);
+		}
+
+		/** Writes summary as JSON, with a line for each position
+		 * @param out destination
+		 * @param config description of engine configuration, written as is
+		 * @throws IOException
+		 */
+		public void writeJson(Writer out, String config) throws IOException {
+			StringBuilder s = new StringBuilder();
+			s.append("{\n");
+			s.append("  \"config\": \"").append(config.replace("\\", "\\\\").replace("\"", "\\\"")).append("\",\n");
+			s.append("  \"positions\": ").append(results.size()).append(",\n");
+			s.append("  \"matches\": ").append(getMatches()).append(",\n");
+			s.append("  \"agreementRate\": ").append(SelfPlay.Summary.format(getAgreementRate())).append(",\n");
+			s.append("  \"meanValueDelta\": ").append(SelfPlay.Summary.format(getMeanValueDelta())).append(",\n");
+			s.append("  \"maxAbsValueDelta\": ").append(SelfPlay.Summary.format(getMaxAbsValueDelta())).append(",\n");
+			s.append("  \"speedup\": ").append(SelfPlay.Summary.format(getSpeedup())).append(",\n");
+			s.append("  \"latencyRatio\": {\"p10\": ").append(SelfPlay.Summary.format(getLatencyRatioPercentile(.1)))
+				.append(", \"p50\": ").append(SelfPlay.Summary.format(getLatencyRatioPercentile(.5)))
+				.append(", \"p90\": ").append(SelfPlay.Summary.format(getLatencyRatioPercentile(.9))).append("},\n");
+			s.append("  \"elapsedSeconds\": ").append(SelfPlay.Summary.format(elapsedNanos/1e9)).append(",\n");
+			s.append("  \"results\": [");
+			for (int i = 0; i<results.size(); i++){
+				Result r = results.get(i);
+				s.append(i==0? "\n" : ",\n");
+				s.append("    {\"game\": ").append(r.reference.getGame())
+					.append(", \"board\": ").append(r.reference.getBoard())
+					.append(", \"move\": \"").append(moveName(r.move))
+					.append("\", \"reference\": \"").append(moveName(r.reference.getMove()))
+					.append("\", \"match\": ").append(r.isMatch())
+					.append(", \"valueDelta\": ").append(SelfPlay.Summary.format(r.getValueDelta()))
+					.append(", \"latencyRatio\": ").append(SelfPlay.Summary.format(r.getLatencyRatio())).append("}");
+			}
+			s.append("\n  ]\n}\n");
+			out.write(s.toString());
+		}
+
+		@Override
+		public String toString(){
+			return String.format(Locale.ROOT, "%d positions, %d matches (%.2f%%), mean value delta %.4f, max |delta| %.4f, speedup x%.3f, median latency ratio %.3f",
+					results.size(), getMatches(), 100*getAgreementRate(), getMeanValueDelta(), getMaxAbsValueDelta(), getSpeedup(), getLatencyRatioPercentile(.5));
+		}
+	}
+
+	/** Constructs harness
+	 * @param game engine whose decisions are checked
+	 * @param threads number of positions replayed at once
+	 */
+	public DecisionRegression(Engine game, int threads){
+		this.game = game;
+		this.threads = threads;
+	}
+
+	/** Reads corpus from game log
+	 * @param path game log
+	 * @param limit max number of positions read
+	 * @return positions in order of log
+	 * @throws IOException if log cannot be read
+	 */
+	public static List<GameRecord> readCorpus(Path path, int limit) throws IOException {
+		List<GameRecord> corpus = new ArrayList<GameRecord>();
+		try (GameLogReader reader = new GameLogReader(path)){
+			GameRecord r;
+			while (corpus.size()<limit && (r = reader.next())!=null){
+				corpus.add(r);
+			}
+		}
+		return corpus;
+	}
+
+	/** Replays one position
+	 * @param reference recorded position
+	 * @return decision of engine
+	 */
+	public Result replay(GameRecord reference){
+		State state = reference.getState();
+		long start = System.nanoTime();
+		Choice choice = game.findBestMove(state);
+		long nanos = System.nanoTime() - start;
+		if (choice.isEmptyChoice()) return new Result(reference, GameRecord.NO_MOVE, Double.NaN, nanos);
+		return new Result(reference, TranspositionTable.moveCode(choice.getMove()), choice.getValue()/state.getProbability(), nanos);
+	}
+
+	/** Replays positions concurrently
+	 * @param corpus recorded positions
+	 * @return summary of comparison
+	 */
+	public Summary run(List<GameRecord> corpus){
+		ExecutorService drivers = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+		try {
+			List<Future<Result>> futures = new ArrayList<Future<Result>>(corpus.size());
+			for (final GameRecord r: corpus){
+				futures.add(drivers.submit(() -> replay(r)));
+			}
+			List<Result> results = new ArrayList<Result>(corpus.size());
+			for (Future<Result> future: futures){
+				results.add(future.get());
+			}
+			return new Summary(results, System.nanoTime()-start);
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException(e);
+		} finally {
+			drivers.shutdownNow();
+		}
+	}
+
+	private static String moveName(int move){
+		return move==GameRecord.NO_MOVE? "-" : String.valueOf("LRUD".charAt(move-1));
+	}
+
+	/** Runs regression from command line.
+	 * Arguments: corpus file [depth [output file [search seed [boardWeight freeCellWeight matchableWeight [max positions]]]]].
+	 * Prints summary, and writes it with per position results as JSON
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length<1) {
+			System.err.println("Usage: DecisionRegression corpus [depth] [output] [seed] [bw fw mw] [limit]");
+			return;
+		}
+		Path corpus = Paths.get(args[0]);
+		int depth = args.length>1? Integer.parseInt(args[1]) : 3;
+		Path output = Paths.get(args.length>2? args[2] : "regression.json");
+		long seed = args.length>3? Long.parseLong(args[3]) : ThreesGame.DEFAULT_SEED;
+		double[] weights = {.39, .47, .14};
+		if (args.length>6){
+			for (int i = 0; i<3; i++){
+				weights[i] = Double.parseDouble(args[4+i]);
+			}
+		}
+		int limit = args.length>7? Integer.parseInt(args[7]) : Integer.MAX_VALUE;
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<GameRecord> positions = readCorpus(corpus, limit);
+		Summary summary;
+		try (ThreesGame game = new ThreesGame(depth, weights[0], weights[1], weights[2])){
+			game.setSeed(seed);
+			summary = new DecisionRegression(game, threads).run(positions);
+		}
+		String config = "corpus=" + corpus + " depth=" + depth + " weights=" + Arrays.toString(weights) + " seed=" + seed + " threads=" + threads;
+		try (Writer out = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+			summary.writeJson(out, config);
+		}
+		System.out.println(summary);
+	}
+
+}
@@ -0,0 +1,531 @@
+/* Copyright (c) 2014 Peter Rimshnick
+ * See the file license.txt for copying permission.
+ */
+package pmr.threes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/** Serves move decisions of an {@link Engine} over HTTP, using the JDK's built-in server, so many
+ * clients can share one JVM. Clients POST a state to {@link #PATH}, either as JSON:
+ * <pre>
+ * {"board":[[0,1,3,3],[3,2,0,1],[2,0,0,1],[0,0,0,1]], "hole":1, "deck":[2,2,1,0]}
+ * </pre>
+ * with hole card 1, 2, 3 or "+" for a bonus card, and optional deck of counts of ones, twos and threes
+ * plus max rank of bonus card (0 for none); or, with content type {@value #BINARY_TYPE}, as the packed
+ * board (8 bytes, see {@link PackedBoard}), hole card (1 byte, 0 for a bonus card) and optional deck
+ * (4 bytes, same order as JSON). The reply is {"move":"L","value":...,"depth":...}, with null move
+ * if there is no legal move, or for binary requests the move code (1 byte, 1-4 for L, R, U, D, 0 for none)
+ * and value (8 byte double). If no deck is given, one is generated from the board, so the same request
+ * always gets the same answer.
+ * <p>
+ * Requests that aren't a valid state get status 400, and bodies over {@value #MAX_BODY_BYTES} bytes
+ * get status 413.
+ * <p>
+ * Identical requests in flight at the same time are coalesced into one search. At most a given number
+ * of searches run at once; requests wait for a turn up to a given time, then are turned away with status
+ * 503, so that a burst of requests doesn't oversubscribe the CPUs and slow every search down.
+ * <p>
+ * Requests are handled on virtual threads when the JVM supports them, otherwise on a cached thread pool.
+ * Either way handler threads only wait on searches, which run on the engine's own pool.
+ * @author Peter Rimshnick
+ *
+ */
+public class DecisionServer implements Closeable {
+
+	/** Path decisions are served on */
+	public static final String PATH = "/move";
+	/** Content type of binary requests and replies */
+	public static final String BINARY_TYPE = "application/octet-stream";
+	/** Content type of JSON requests and replies */
+	public static final String JSON_TYPE = "application/json";
+	/** Largest request body accepted, in bytes */
+	public static final int MAX_BODY_BYTES = 4096;
+	/** Default time a request waits for a search to start before it is turned away */
+	public static final Duration DEFAULT_MAX_WAIT = Duration.ofSeconds(1);
+
+	private final Engine engine;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final Semaphore permits;
+	private final Duration maxWait;
+	private final Map<StateKey, CompletableFuture<Choice>> inFlight = new ConcurrentHashMap<StateKey, CompletableFuture<Choice>>();
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder searches = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+
+	/** Creates server, not started yet
+	 * @param engine engine making decisions. Not closed with server
+	 * @param address address to listen on; port 0 picks a free one
+	 * @param maxSearches most searches run at once
+	 * @param maxWait time a request waits for a search to start before it is turned away
+	 * @throws IOException if server cannot listen on address
+	 */
+	public DecisionServer(Engine engine, InetSocketAddress address, int maxSearches, Duration maxWait) throws IOException {
+		if (maxSearches<1) throw new IllegalArgumentException("Bad number of searches: " + maxSearches);
+		this.engine = engine;
+		this.permits = new Semaphore(maxSearches, true);
+		this.maxWait = maxWait;
+		this.executor = newExecutor();
+		this.server = HttpServer.create(address, 0);
+		server.createContext(PATH, this::handle);
+		server.setExecutor(executor);
+	}
+
+	/** Creates executor running a virtual thread per request if the JVM has them (Java 21 on), otherwise
+	 * a cached pool of daemon threads
+	 * @return executor of request handlers
+	 */
+	private static ExecutorService newExecutor(){
+		try {
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)m.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool(r -> {
+				Thread t = new Thread(r, "decision-server");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+	}
+
+	/** Starts serving requests
+	 */
+	public void start(){
+		server.start();
+	}
+
+	/** Gets port server listens on
+	 * @return port
+	 */
+	public int getPort(){
+		return server.getAddress().getPort();
+	}
+
+	/** Stops server, letting requests being handled finish for up to a second
+	 */
+	@Override
+	public void close(){
+		server.stop(1);
+		executor.shutdownNow();
+	}
+
+	/** Gets number of requests received
+	 * @return number of requests
+	 */
+	public long getRequests(){
+		return requests.sum();
+	}
+
+	/** Gets number of searches run
+	 * @return number of searches
+	 */
+	public long getSearches(){
+		return searches.sum();
+	}
+
+	/** Gets number of requests answered by another request's search
+	 * @return number of coalesced requests
+	 */
+	public long getCoalesced(){
+		return coalesced.sum();
+	}
+
+	/** Gets number of requests turned away because too many searches were running
+	 * @return number of rejected requests
+	 */
+	public long getRejected(){
+		return rejected.sum();
+	}
+
+	/** Finds best move for given state, joining search of identical state already in flight if
+	 * there is one
+	 * @param state state
+	 * @return best move found
+	 * @throws RejectedExecutionException if search could not start in time
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	Choice decide(State state) throws InterruptedException {
+		StateKey key = new StateKey(state);
+		CompletableFuture<Choice> future = new CompletableFuture<Choice>();
+		CompletableFuture<Choice> existing = inFlight.putIfAbsent(key, future);
+		if (existing!=null){
+			coalesced.increment();
+			return join(existing);
+		}
+		try {
+			if (!permits.tryAcquire(maxWait.toNanos(), TimeUnit.NANOSECONDS)) {
+				rejected.increment();
+				throw new RejectedExecutionException("Too many searches");
+			}
+			try {
+				searches.increment();
+				future.complete(engine.findBestMove(state));
+			} finally {
+				permits.release();
+			}
+		} catch (Throwable e) {
+			future.completeExceptionally(e);
+		} finally {
+			inFlight.remove(key, future);
+		}
+		return join(future);
+	}
+
+	/** Waits for result of search
+	 * @param future result of search
+	 * @return choice found by search
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private static Choice join(CompletableFuture<Choice> future) throws InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if (cause instanceof Error) throw (Error)cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/** Handles request to {@link #PATH}
+	 * @param exchange request and reply
+	 * @throws IOException if reply cannot be sent
+	 */
+	private void handle(HttpExchange exchange) throws IOException {
+		requests.increment();
+		try {
+			if (!"POST".equals(exchange.getRequestMethod())){
+				reply(exchange, 405, "text/plain", "POST a state\n".getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+			String type = exchange.getRequestHeaders().getFirst("Content-Type");
+			boolean binary = type!=null && type.startsWith(BINARY_TYPE);
+			String length = exchange.getRequestHeaders().getFirst("Content-Length");
+			byte[] body = null;
+			if (length==null || parseLength(length)<=MAX_BODY_BYTES) {
+				try (InputStream in = exchange.getRequestBody()){
+					body = readAll(in, MAX_BODY_BYTES);
+				}
+			}
+			if (body==null){
+				reply(exchange, 413, "text/plain", ("Request over " + MAX_BODY_BYTES + " bytes\n").getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+			State state;
+			try {
+				state = binary? readBinary(ByteBuffer.wrap(body)) : readJson(new String(body, StandardCharsets.UTF_8));
+			} catch (IllegalArgumentException | BufferUnderflowException | ClassCastException | IndexOutOfBoundsException e) {
+				reply(exchange, 400, "text/plain", ("Bad state: " + e.getMessage() + "\n").getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+			Choice c;
+			try {
+				c = decide(state);
+			} catch (RejectedExecutionException e) {
+				reply(exchange, 503, "text/plain", "Busy\n".getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+			if (binary) reply(exchange, 200, BINARY_TYPE, writeBinary(c));
+			else reply(exchange, 200, JSON_TYPE, writeJson(c).getBytes(StandardCharsets.UTF_8));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			reply(exchange, 503, "text/plain", "Shutting down\n".getBytes(StandardCharsets.UTF_8));
+		} catch (RuntimeException e) {
+			reply(exchange, 500, "text/plain", (e + "\n").getBytes(StandardCharsets.UTF_8));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/** Sends reply
+	 * @param exchange request and reply
+	 * @param status HTTP status
+	 * @param type content type
+	 * @param body body of reply
+	 * @throws IOException if reply cannot be sent
+	 */
+	private static void reply(HttpExchange exchange, int status, String type, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", type);
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()){
+			out.write(body);
+		}
+	}
+
+	/** Parses Content-Length header
+	 * @param length value of header
+	 * @return length, or {@link Long#MAX_VALUE} if it is not a number
+	 */
+	private static long parseLength(String length){
+		try {
+			return Long.parseLong(length.trim());
+		} catch (NumberFormatException e) {
+			return Long.MAX_VALUE;
+		}
+	}
+
+	/** Reads stream to its end
+	 * @param in stream
+	 * @return bytes read
+	 * @throws IOException if stream cannot be read
+	 */
+	static byte[] readAll(InputStream in) throws IOException {
+		return readAll(in, Integer.MAX_VALUE);
+	}
+
+	/** Reads stream to its end, giving up once it is longer than a limit
+	 * @param in stream
+	 * @param limit max number of bytes read
+	 * @return bytes read, or null if stream is longer than limit
+	 * @throws IOException if stream cannot be read
+	 */
+	static byte[] readAll(InputStream in, int limit) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		int n;
+		while ((n = in.read(buf))>=0){
+			if (out.size()+n>limit) return null;
+			out.write(buf, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	/** Reads state from binary request
+	 * @param in body of request
+	 * @return state
+	 */
+	static State readBinary(ByteBuffer in){
+		long packed = in.getLong();
+		int hole = in.get();
+		Deck deck = in.remaining()>=4? Deck.of(in.get(), in.get(), in.get(), in.get()) : null;
+		return newState(PackedBoard.unpack(packed), hole, deck);
+	}
+
+	/** Writes binary reply
+	 * @param c choice found
+	 * @return body of reply
+	 */
+	static byte[] writeBinary(Choice c){
+		ByteBuffer out = ByteBuffer.allocate(9);
+		out.put((byte)(c.isEmptyChoice()? 0 : TranspositionTable.moveCode(c.getMove())));
+		out.putDouble(c.isEmptyChoice()? 0 : c.getValue());
+		return out.array();
+	}
+
+	/** Reads state from JSON request
+	 * @param json body of request
+	 * @return state
+	 */
+	@SuppressWarnings("unchecked")
+	static State readJson(String json){
+		Object value = new JsonReader(json).readValue();
+		if (!(value instanceof Map)) throw new IllegalArgumentException("Request must be an object");
+		Map<String, Object> request = (Map<String, Object>)value;
+		List<Object> rows = toList(request.get("board"), "board");
+		if (rows.size()!=PackedBoard.SIZE) throw new IllegalArgumentException("Board must have " + PackedBoard.SIZE + " rows");
+		int[][] board = new int[PackedBoard.SIZE][PackedBoard.SIZE];
+		for (int i = 0; i<PackedBoard.SIZE; i++){
+			List<Object> row = toList(rows.get(i), "row");
+			if (row.size()!=PackedBoard.SIZE) throw new IllegalArgumentException("Row must have " + PackedBoard.SIZE + " cells");
+			for (int j = 0; j<PackedBoard.SIZE; j++){
+				board[i][j] = toInt(row.get(j), "cell");
+			}
+		}
+		Object hole = request.get("hole");
+		if (hole==null) throw new IllegalArgumentException("No hole card");
+		Deck deck = null;
+		if (request.get("deck")!=null){
+			List<Object> counts = toList(request.get("deck"), "deck");
+			if (counts.size()!=4) throw new IllegalArgumentException("Deck must have 4 counts");
+			deck = Deck.of(toInt(counts.get(0), "deck count"), toInt(counts.get(1), "deck count"), toInt(counts.get(2), "deck count"), toInt(counts.get(3), "deck count"));
+		}
+		return newState(board, "+".equals(hole)? 0 : toInt(hole, "hole"), deck);
+	}
+
+	/** Writes JSON reply
+	 * @param c choice found
+	 * @return body of reply
+	 */
+	static String writeJson(Choice c){
+		if (c.isEmptyChoice()) return "{\"move\":null}";
+		return String.format(Locale.ROOT, "{\"move\":\"%s\",\"value\":%.6f,\"depth\":%d}", c.getMove(), c.getValue(), c.getDepth());
+	}
+
+	/** Converts JSON array to list
+	 * @param o array
+	 * @param name name of value, for error message
+	 * @return list
+	 * @throws IllegalArgumentException if value is missing or not an array
+	 */
+	@SuppressWarnings("unchecked")
+	private static List<Object> toList(Object o, String name){
+		if (!(o instanceof List)) throw new IllegalArgumentException("Expected array for " + name + ": " + o);
+		return (List<Object>)o;
+	}
+
+	/** Converts JSON number to int
+	 * @param o number
+	 * @param name name of value, for error message
+	 * @return int value
+	 * @throws IllegalArgumentException if value is missing or not an integer
+	 */
+	private static int toInt(Object o, String name){
+		if (!(o instanceof Double)) throw new IllegalArgumentException("Expected number for " + name + ": " + o);
+		double d = (Double)o;
+		if (d!=Math.rint(d)) throw new IllegalArgumentException("Not an integer: " + d);
+		return (int)d;
+	}
+
+	/** Creates state of request
+	 * @param board board
+	 * @param hole hole card 1, 2 or 3, or 0 for a bonus card
+	 * @param deck deck, or null to generate one from board
+	 * @return state
+	 */
+	private static State newState(int[][] board, int hole, Deck deck){
+		Board b = new Board(board);
+		HoleCard holeCard;
+		if (hole==0){
+			List<Integer> additions = ThreesGame.getPossibleAdditions(board);
+			if (additions.isEmpty()) throw new IllegalArgumentException("Board allows no bonus card");
+			holeCard = new AmbiguousHoleCard(additions);
+		}
+		else if (hole>=1 && hole<=3) holeCard = new RegularHoleCard(hole);
+		else throw new IllegalArgumentException("Bad hole card: " + hole);
+		if (deck==null || deck.isEmpty()) deck = ThreesGame.generateCardStack(b, new SplittableRandom(b.getPackedBoard()));
+		return new State(b, deck, holeCard, 1.0);
+	}
+
+	/** Minimal reader of the JSON values requests are made of: objects, arrays, numbers, strings
+	 * without escapes, and null. Numbers are read as doubles
+	 */
+	private static final class JsonReader {
+		private final String s;
+		private int pos;
+
+		JsonReader(String s){
+			this.s = s;
+		}
+
+		Object readValue(){
+			skipSpace();
+			if (pos>=s.length()) throw new IllegalArgumentException("Unexpected end of JSON");
+			char c = s.charAt(pos);
+			switch (c){
+			case '{':
+				Map<String, Object> map = new LinkedHashMap<String, Object>();
+				pos++;
+				if (peek()=='}') {
+					pos++;
+					return map;
+				}
+				do {
+					skipSpace();
+					String key = readString();
+					expect(':');
+					map.put(key, readValue());
+				} while (next()==',');
+				pos--;
+				expect('}');
+				return map;
+			case '[':
+				List<Object> list = new ArrayList<Object>();
+				pos++;
+				if (peek()==']') {
+					pos++;
+					return list;
+				}
+				do {
+					list.add(readValue());
+				} while (next()==',');
+				pos--;
+				expect(']');
+				return list;
+			case '"':
+				return readString();
+			case 'n':
+				if (!s.startsWith("null", pos)) throw new IllegalArgumentException("Bad JSON at " + pos);
+				pos += 4;
+				return null;
+			default:
+				int start = pos;
+				while (pos<s.length() && "+-.0123456789eE".indexOf(s.charAt(pos))>=0) pos++;
+				if (start==pos) throw new IllegalArgumentException("Bad JSON at " + pos);
+				return Double.valueOf(s.substring(start, pos));
+			}
+		}
+
+		private String readString(){
+			if (peek()!='"') throw new IllegalArgumentException("Expected string at " + pos);
+			int end = s.indexOf('"', ++pos);
+			if (end<0) throw new IllegalArgumentException("Unterminated string");
+			String str = s.substring(pos, end);
+			pos = end+1;
+			return str;
+		}
+
+		private void skipSpace(){
+			while (pos<s.length() && Character.isWhitespace(s.charAt(pos))) pos++;
+		}
+
+		private char peek(){
+			skipSpace();
+			if (pos>=s.length()) throw new IllegalArgumentException("Unexpected end of JSON");
+			return s.charAt(pos);
+		}
+
+		private char next(){
+			char c = peek();
+			pos++;
+			return c;
+		}
+
+		private void expect(char c){
+			if (next()!=c) throw new IllegalArgumentException("Expected " + c + " at " + (pos-1));
+		}
+	}
+
+	/** Runs server on given port until killed
+	 * @param args port (default 8080), search depth (default 5), most searches at once (default number of processors)
+	 * @throws IOException if server cannot listen on port
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length>0? Integer.parseInt(args[0]) : 8080;
+		int depth = args.length>1? Integer.parseInt(args[1]) : 5;
+		int maxSearches = args.length>2? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		ThreesGame game = new ThreesGame(depth, .39, .47, .14);
+		DecisionServer server = new DecisionServer(game, new InetSocketAddress(port), maxSearches, DEFAULT_MAX_WAIT);
+		server.start();
+		System.out.println("Serving decisions at http://localhost:" + server.getPort() + PATH);
+	}
+
+}
@@ -0,0 +1,212 @@
+/* Copyright (c) 2014 Peter Rimshnick
+ * See the file license.txt for copying permission.
+ */
+package pmr.threes;
+
+/** Immutable stack of cards not played yet. Keeps a count of each regular card (1, 2 and 3) plus
+ * the bonus card, if any, which can take on any value from 3 up to a maximum rank.
+ * All possible decks are created up front, so drawing or removing a card is a table lookup
+ * with no allocation.
+ * @author Peter Rimshnick
+ *
+ */
+public final class Deck {
+
+	/** Most cards of one regular value a deck can hold */
+	public static final int MAX_COUNT = 4;
+
+	/** Card kinds, used as index into counts */
+	static final int ONE = 0, TWO = 1, THREE = 2, BONUS = 3;
+
+	/** Number of card kinds */
+	static final int KINDS = 4;
+
+	private static final int COUNTS = MAX_COUNT+1;
+	private static final Deck[] DECKS = new Deck[COUNTS*COUNTS*COUNTS*2*(PackedBoard.MAX_RANK+1)];
+	private static final HoleCard[] REGULAR_CARDS = {new RegularHoleCard(1), new RegularHoleCard(2), new RegularHoleCard(3)};
+	private static final AmbiguousHoleCard[] BONUS_CARDS = new AmbiguousHoleCard[PackedBoard.MAX_RANK+1];
+
+	static {
+		for (int rank = 3; rank<=PackedBoard.MAX_RANK; rank++){
+			BONUS_CARDS[rank] = new AmbiguousHoleCard(ThreesGame.getPossibleAdditions(PackedBoard.valueOf(rank+3)));
+		}
+		for (int ones = 0; ones<COUNTS; ones++){
+			for (int twos = 0; twos<COUNTS; twos++){
+				for (int threes = 0; threes<COUNTS; threes++){
+					for (int bonus = 0; bonus<2; bonus++){
+						for (int bonusRank = 0; bonusRank<=PackedBoard.MAX_RANK; bonusRank++){
+							int index = index(ones, twos, threes, bonus, bonusRank);
+							DECKS[index] = new Deck(index, ones, twos, threes, bonus, bonusRank);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private final int index;
+	private final int ones;
+	private final int twos;
+	private final int threes;
+	private final int bonus;
+	private final int bonusRank;
+	private final int size;
+
+	private Deck(int index, int ones, int twos, int threes, int bonus, int bonusRank){
+		this.index = index;
+		this.ones = ones;
+		this.twos = twos;
+		this.threes = threes;
+		this.bonus = bonus;
+		this.bonusRank = bonusRank;
+		this.size = ones + twos + threes + bonus;
+	}
+
+	private static int index(int ones, int twos, int threes, int bonus, int bonusRank){
+		return (((ones*COUNTS + twos)*COUNTS + threes)*2 + bonus)*(PackedBoard.MAX_RANK+1) + bonusRank;
+	}
+
+	/** Gets deck with given contents
+	 * @param ones number of 1 cards
+	 * @param twos number of 2 cards
+	 * @param threes number of 3 cards
+	 * @param bonusRank max rank of bonus card, or 0 if deck has no bonus card
+	 * @return deck
+	 */
+	public static Deck of(int ones, int twos, int threes, int bonusRank){
+		if (ones<0 || twos<0 || threes<0 || ones>MAX_COUNT || twos>MAX_COUNT || threes>MAX_COUNT){
+			throw new IllegalArgumentException("Card counts must be between 0 and " + MAX_COUNT);
+		}
+		if (bonusRank!=0 && (bonusRank<3 || bonusRank>PackedBoard.MAX_RANK)) throw new IllegalArgumentException("Bad bonus rank: " + bonusRank);
+		return DECKS[index(ones, twos, threes, bonusRank==0? 0 : 1, bonusRank)];
+	}
+
+	/** Number of cards in deck
+	 * @return size of deck
+	 */
+	public int size(){
+		return size;
+	}
+
+	/** Indicates whether deck has no cards left
+	 * @return true if deck is empty
+	 */
+	public boolean isEmpty(){
+		return size==0;
+	}
+
+	/** Number of cards of given kind
+	 * @param kind {@link #ONE}, {@link #TWO}, {@link #THREE} or {@link #BONUS}
+	 * @return count of cards of that kind
+	 */
+	int count(int kind){
+		switch (kind){
+		case ONE: return ones;
+		case TWO: return twos;
+		case THREE: return threes;
+		default: return bonus;
+		}
+	}
+
+	/** Number of kinds of card in deck
+	 * @return number of kinds with at least one card
+	 */
+	int kinds(){
+		return (ones>0? 1 : 0) + (twos>0? 1 : 0) + (threes>0? 1 : 0) + bonus;
+	}
+
+	/** Gets hole card for given kind of card
+	 * @param kind {@link #ONE}, {@link #TWO}, {@link #THREE} or {@link #BONUS}
+	 * @return hole card
+	 */
+	HoleCard card(int kind){
+		return kind==BONUS? BONUS_CARDS[bonusRank] : REGULAR_CARDS[kind];
+	}
+
+	/** Gets card at given position, with cards ordered by kind. Used to draw a card given a uniform
+	 * random position.
+	 * @param position position in deck, from 0 to size-1
+	 * @return card at position
+	 */
+	public HoleCard cardAt(int position){
+		return card(kindAt(position));
+	}
+
+	/** Gets kind of card at given position, with cards ordered by kind
+	 * @param position position in deck, from 0 to size-1
+	 * @return kind of card
+	 */
+	int kindAt(int position){
+		if (position<0 || position>=size) throw new IndexOutOfBoundsException("Position " + position + ", size " + size);
+		if (position<ones) return ONE;
+		position -= ones;
+		if (position<twos) return TWO;
+		position -= twos;
+		if (position<threes) return THREE;
+		return BONUS;
+	}
+
+	/** Returns version of deck with given kind of card removed
+	 * @param kind {@link #ONE}, {@link #TWO}, {@link #THREE} or {@link #BONUS}
+	 * @return new deck with card removed
+	 */
+	Deck remove(int kind){
+		assert count(kind)>0;
+		switch (kind){
+		case ONE: return DECKS[index-COUNTS*COUNTS*2*(PackedBoard.MAX_RANK+1)];
+		case TWO: return DECKS[index-COUNTS*2*(PackedBoard.MAX_RANK+1)];
+		case THREE: return DECKS[index-2*(PackedBoard.MAX_RANK+1)];
+		default: return DECKS[index(ones, twos, threes, 0, 0)];
+		}
+	}
+
+	/** Returns version of deck with given card removed
+	 * @param h card to be removed
+	 * @return new deck with card removed
+	 */
+	public Deck remove(HoleCard h){
+		return remove(kindOf(h));
+	}
+
+	/** Finds kind of given card
+	 * @param h card
+	 * @return {@link #ONE}, {@link #TWO}, {@link #THREE} or {@link #BONUS}
+	 */
+	static int kindOf(HoleCard h){
+		if (h instanceof RegularHoleCard){
+			int value = ((RegularHoleCard)h).value;
+			if (value>=1 && value<=3) return value-1;
+		}
+		return BONUS;
+	}
+
+	/** Gets max rank of bonus card
+	 * @return max rank of bonus card, or 0 if deck has no bonus card
+	 */
+	public int getBonusRank(){
+		return bonus==0? 0 : bonusRank;
+	}
+
+	/** Unique index of this deck among all possible decks. Less than 4000
+	 * @return index of deck
+	 */
+	int index(){
+		return index;
+	}
+
+	@Override
+	public boolean equals(Object o){
+		return (o instanceof Deck) && ((Deck)o).index==index;
+	}
+
+	@Override
+	public int hashCode(){
+		return index;
+	}
+
+	@Override
+	public String toString(){
+		return "{1=" + ones + ", 2=" + twos + ", 3=" + threes + (bonus>0? ", +=" + bonus : "") + "}";
+	}
+
+}
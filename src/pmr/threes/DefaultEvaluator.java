@@ -0,0 +1,172 @@
+/* Copyright (c) 2014 Peter Rimshnick
+ * See the file license.txt for copying permission.
+ */
+package pmr.threes;
+
+/** Default evaluator. Weighs together board score (relative to root), number of free cells, and number
+ * of potential matches. All three features are read from per-row tables, with the columns handled as rows
+ * of the transposed board. States created by moves carry their features, updated from the previous state's
+ * for the lines the move changed, so leaves are usually evaluated without reading the board at all.
+ * @author Peter Rimshnick
+ *
+ */
+public class DefaultEvaluator implements Evaluator {
+
+	private static final double EPSILON = .0000001;
+
+	/** Board score of every packed row */
+	static final double[] ROW_SCORE = new double[1<<16];
+
+	/** Free cells (low byte) and matchable cells (next byte) of every packed row */
+	static final int[] ROW_FEATURES = new int[1<<16];
+
+	/** Packed features value meaning features are not known */
+	static final int NO_FEATURES = -1;
+
+	/** Mask of one field of packed features */
+	static final int FEATURE_MASK = 0xFF;
+
+	/** Shift of matchable cells along rows, and along columns, in packed features */
+	static final int ROW_MATCHABLE_SHIFT = 8, COLUMN_MATCHABLE_SHIFT = 16;
+
+	/** Most free cells a move can add: one merge per row, less the card inserted */
+	private static final int MAX_FREED_PER_MOVE = PackedBoard.SIZE-1;
+
+	/** Most adjacent pairs of cells for each number of occupied cells */
+	private static final int[] MAX_ADJACENT = new int[PackedBoard.SIZE*PackedBoard.SIZE+1];
+
+	static {
+		for (int row = 0; row<ROW_SCORE.length; row++){
+			double score = 0;
+			int free = 0;
+			int matchable = 0;
+			for (int j = 0; j<PackedBoard.SIZE; j++){
+				int rank = PackedBoard.getCell(row, j);
+				int cell = PackedBoard.valueOf(rank);
+				if (cell>2) score += Math.pow(3, Math.log(cell/3)/Math.log(2)+1);  //3^(log_2(cell/3)+1) = 3^((log(cell/3)/log(2))+1)
+				if (cell==0) free++;
+				//each matchable pair counts once for each of its cells
+				if (j<PackedBoard.SIZE-1 && ThreesGame.canMatch(rank, PackedBoard.getCell(row, j+1))) matchable += 2;
+			}
+			ROW_SCORE[row] = score;
+			ROW_FEATURES[row] = free | matchable<<8;
+		}
+		//each occupied cell set is a 16-bit mask, so count the adjacent pairs in each
+		for (int occupied = 0; occupied<1<<16; occupied++){
+			int pairs = Integer.bitCount(occupied & (occupied>>>1) & 0x7777) + Integer.bitCount(occupied & (occupied>>>4));
+			int cells = Integer.bitCount(occupied);
+			if (pairs>MAX_ADJACENT[cells]) MAX_ADJACENT[cells] = pairs;
+		}
+	}
+
+	final double boardWeight;
+	final double freeCellWeight;
+	final double matchableWeight;
+	private final double rootScore;
+	/** Upper bound of free cell and matchable terms, by max number of free cells */
+	private final double[] featureBound;
+
+	/** Constructs evaluator with given weights
+	 * @param boardWeight weight of board score in evaluation criteria
+	 * @param freeCellWeight weight given to outstanding empty cells in evaluation criteria
+	 * @param matchableWeight weight given to having potential matches in evaluation critiera
+	 */
+	public DefaultEvaluator(double boardWeight, double freeCellWeight, double matchableWeight){
+		this(boardWeight, freeCellWeight, matchableWeight, Double.NaN);
+	}
+
+	private DefaultEvaluator(double boardWeight, double freeCellWeight, double matchableWeight, double rootScore){
+		this.boardWeight = boardWeight;
+		this.freeCellWeight = freeCellWeight;
+		this.matchableWeight = matchableWeight;
+		this.rootScore = rootScore;
+		this.featureBound = new double[MAX_ADJACENT.length];
+		double fw = freeCellWeight<EPSILON? 0 : freeCellWeight;
+		double mw = matchableWeight<EPSILON? 0 : matchableWeight;
+		for (int maxFree = 0; maxFree<featureBound.length; maxFree++){
+			double bound = Double.NEGATIVE_INFINITY;
+			for (int free = 0; free<=maxFree; free++){
+				//a matchable pair needs two occupied cells, and counts once for each
+				bound = Math.max(bound, free*fw + 2*MAX_ADJACENT[MAX_ADJACENT.length-1-free]*mw);
+			}
+			featureBound[maxFree] = bound;
+		}
+	}
+
+	@Override
+	public Evaluator forRoot(Board root) {
+		return new DefaultEvaluator(boardWeight, freeCellWeight, matchableWeight, getBoardScore(root.getPackedBoard()));
+	}
+
+	@Override
+	public double evaluate(State state) {
+		int features = state.getFeatures();
+		double boardScore = boardWeight<EPSILON? 0 : rootScore/state.getBoardScore();
+		int freeCellScore = freeCellWeight<EPSILON? 0 : features & FEATURE_MASK;
+		int matchableScore = matchableWeight<EPSILON? 0 : ((features>>>ROW_MATCHABLE_SHIFT) & FEATURE_MASK) + (features>>>COLUMN_MATCHABLE_SHIFT);
+		return boardScore*boardWeight + freeCellScore*freeCellWeight + matchableScore*matchableWeight;
+	}
+
+	@Override
+	public long getRootTag() {
+		return Double.doubleToLongBits(rootScore);
+	}
+
+	@Override
+	public long getParameterTag() {
+		long tag = getClass().getName().hashCode();
+		tag = tag*0x9E3779B97F4A7C15L + Double.doubleToLongBits(boardWeight);
+		tag = tag*0x9E3779B97F4A7C15L + Double.doubleToLongBits(freeCellWeight);
+		tag = tag*0x9E3779B97F4A7C15L + Double.doubleToLongBits(matchableWeight);
+		return tag==0? 1 : tag;
+	}
+
+	/** {@inheritDoc}
+	 * <p>
+	 * Board score never decreases as the game goes on, so the board term is at most its value for
+	 * given state, and each move frees at most {@link #MAX_FREED_PER_MOVE} cells.
+	 */
+	@Override
+	public double upperBound(State state, int depth) {
+		double boardBound = 0;
+		if (boardWeight>=EPSILON){
+			double score = state.getBoardScore();
+			if (!(score>0)) return Double.POSITIVE_INFINITY;
+			boardBound = boardWeight*rootScore/score;
+		}
+		int maxFree = Math.min(featureBound.length-1, (state.getFeatures() & FEATURE_MASK) + MAX_FREED_PER_MOVE*depth);
+		return boardBound + featureBound[maxFree];
+	}
+
+	/** Finds score of board
+	 * @param board packed board
+	 * @return score of given board
+	 */
+	static double getBoardScore(long board){
+		double score = 0;
+		for (int i = 0; i<PackedBoard.SIZE; i++){
+			score += ROW_SCORE[PackedBoard.getRow(board, i)];
+		}
+		return score;
+	}
+
+	/** Finds features of board, packed into an int: free cells in the low byte, then matchable cells
+	 * along rows, then matchable cells along columns
+	 * @param board packed board
+	 * @return packed features
+	 */
+	static int features(long board){
+		long transposed = PackedBoard.transpose(board);
+		int features = 0;
+		for (int i = 0; i<PackedBoard.SIZE; i++){
+			features += ROW_FEATURES[PackedBoard.getRow(board, i)] + ((ROW_FEATURES[PackedBoard.getRow(transposed, i)]>>>8)<<COLUMN_MATCHABLE_SHIFT);
+		}
+		return features;
+	}
+
+	@Override
+	public String toString(){
+		return "(" + boardWeight + "," + freeCellWeight + "," + matchableWeight + ")";
+	}
+
+}
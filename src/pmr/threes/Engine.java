@@ -0,0 +1,24 @@
+/* Copyright (c) 2014 Peter Rimshnick
+ * See the file license.txt for copying permission.
+ */
+package pmr.threes;
+
+import java.io.Closeable;
+
+/** Picks moves. Implemented by the expectimax search of {@link ThreesGame} and by {@link MctsEngine}.
+ * Engines may hold threads, so should be closed when no longer used.
+ * @author Peter Rimshnick
+ *
+ */
+public interface Engine extends Closeable {
+
+	/** Finds best move given a state
+	 * @param start state
+	 * @return {@link Choice} object containing info on best move found, or an empty choice if there is no legal move
+	 */
+	public Choice findBestMove(State start);
+
+	@Override
+	public void close();
+
+}
@@ -0,0 +1,50 @@
+/* Copyright (c) 2014 Peter Rimshnick
+ * See the file license.txt for copying permission.
+ */
+package pmr.threes;
+
+/** Interface for heuristic evaluation of leaf states in search
+ * @author Peter Rimshnick
+ *
+ */
+public interface Evaluator {
+
+	/** Binds evaluator to root of a search. Any terms derived from the root are computed
+	 * once here rather than at every leaf.
+	 * @param root board at root of search
+	 * @return evaluator for states searched from given root
+	 */
+	public Evaluator forRoot(Board root);
+
+	/** Evaluates state. Value is not weighted by probability of state.
+	 * @param state state to be evaluated
+	 * @return heuristic value of state
+	 */
+	public double evaluate(State state);
+
+	/** Identifies the root-derived terms of this evaluator. Evaluators with equal tags give
+	 * equal values for equal states, so their searches can share cached results.
+	 * @return tag of root this evaluator is bound to
+	 */
+	public long getRootTag();
+
+	/** Identifies the parameters of this evaluator, e.g. its weights, regardless of root. Evaluators
+	 * with equal nonzero tags give equal values for equal states and roots, so moves an
+	 * {@link OpeningBook} found with one are the moves the other would find.
+	 * @return tag of parameters, or 0 if evaluator can't identify them
+	 */
+	public default long getParameterTag(){
+		return 0;
+	}
+
+	/** Finds upper bound of {@link #evaluate(State)} over given state and all states reachable from it
+	 * within given number of moves. Used to prune search; the default gives no bound.
+	 * @param state state
+	 * @param depth number of moves
+	 * @return upper bound of value, or {@link Double#POSITIVE_INFINITY} if unknown
+	 */
+	public default double upperBound(State state, int depth){
+		return Double.POSITIVE_INFINITY;
+	}
+
+}
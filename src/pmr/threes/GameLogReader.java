@@ -0,0 +1,120 @@
+/* Copyright (c) 2014 Peter Rimshnick
+ * See the file license.txt for copying permission.
+ */
+package pmr.threes;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/** Streams {@link GameRecord}s from a log written by {@link GameLogWriter}, reading the file in blocks
+ * through a channel, so logs much larger than memory can be scanned. Iterable once.
+ * @author Peter Rimshnick
+ *
+ */
+public class GameLogReader implements Iterable<GameRecord>, Closeable {
+
+	private static final int BUFFER_RECORDS = 2048;
+
+	private final ReadableByteChannel in;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_RECORDS*GameRecord.BYTES);
+	private boolean eof;
+	private boolean iterated;
+
+	/** Opens log file
+	 * @param path log file
+	 * @throws IOException if file cannot be read, or is not a log
+	 */
+	public GameLogReader(Path path) throws IOException {
+		this(FileChannel.open(path, StandardOpenOption.READ));
+	}
+
+	/** Opens log on given channel, closed with the reader
+	 * @param in channel
+	 * @throws IOException if channel cannot be read, or is not a log
+	 */
+	public GameLogReader(ReadableByteChannel in) throws IOException {
+		this.in = in;
+		buffer.limit(0);
+		if (!fill(GameLogWriter.HEADER_BYTES) || buffer.getInt()!=GameLogWriter.MAGIC) {
+			in.close();
+			throw new IOException("Not a game log");
+		}
+		int version = buffer.getInt();
+		if (version!=GameLogWriter.VERSION) {
+			in.close();
+			throw new IOException("Unsupported log version: " + version);
+		}
+	}
+
+	/** Makes sure given number of bytes are buffered, reading more if needed
+	 * @param bytes bytes needed
+	 * @return false if log ends first
+	 * @throws IOException if read fails
+	 */
+	private boolean fill(int bytes) throws IOException {
+		if (buffer.remaining()>=bytes) return true;
+		buffer.compact();
+		while (!eof && buffer.position()<bytes){
+			if (in.read(buffer)<0) eof = true;
+		}
+		buffer.flip();
+		return buffer.remaining()>=bytes;
+	}
+
+	/** Reads next record
+	 * @return next record, or null at end of log. A partial record at the end, from a log that
+	 * was not closed, is ignored
+	 * @throws IOException if read fails
+	 */
+	public GameRecord next() throws IOException {
+		if (!fill(GameRecord.BYTES)) return null;
+		return GameRecord.read(buffer);
+	}
+
+	/** Iterates over records not read yet
+	 * @throws UncheckedIOException if a read fails while iterating
+	 */
+	@Override
+	public Iterator<GameRecord> iterator(){
+		if (iterated) throw new IllegalStateException("Log can only be iterated once");
+		iterated = true;
+		return new Iterator<GameRecord>() {
+			private GameRecord next = read();
+
+			private GameRecord read(){
+				try {
+					return GameLogReader.this.next();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next!=null;
+			}
+
+			@Override
+			public GameRecord next() {
+				if (next==null) throw new NoSuchElementException();
+				GameRecord r = next;
+				next = read();
+				return r;
+			}
+		};
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+}
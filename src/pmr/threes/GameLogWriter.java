@@ -0,0 +1,103 @@
+/* Copyright (c) 2014 Peter Rimshnick
+ * See the file license.txt for copying permission.
+ */
+package pmr.threes;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/** Streams steps of games to a binary log as {@link GameRecord}s, after a header of {@link #MAGIC} and
+ * {@link #VERSION}. Records are collected in a buffer and written in large blocks, so logging a step
+ * costs little more than copying 32 bytes. Safe to share between threads playing different games;
+ * each record carries its game id.
+ * @author Peter Rimshnick
+ *
+ */
+public class GameLogWriter implements Closeable {
+
+	/** Start of every log */
+	public static final int MAGIC = 0x544C4F47;
+	/** Version of log format */
+	public static final int VERSION = 2;
+	/** Size of header in bytes */
+	public static final int HEADER_BYTES = 8;
+	private static final int BUFFER_RECORDS = 2048;
+
+	private final WritableByteChannel out;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_RECORDS*GameRecord.BYTES);
+	private long records;
+
+	/** Creates log file, replacing it if it exists
+	 * @param path log file
+	 * @throws IOException if file cannot be created
+	 */
+	public GameLogWriter(Path path) throws IOException {
+		this(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+	}
+
+	/** Creates log on given channel, closed with the writer
+	 * @param out channel
+	 * @throws IOException if header cannot be written
+	 */
+	public GameLogWriter(WritableByteChannel out) throws IOException {
+		this.out = out;
+		buffer.putInt(MAGIC).putInt(VERSION);
+	}
+
+	/** Logs one step of a game
+	 * @param game id of game, e.g. its seed
+	 * @param state state move was chosen in
+	 * @param choice move chosen, or empty choice if game is over
+	 * @param decisionNanos time taken to choose move
+	 * @throws UncheckedIOException if buffer cannot be written
+	 */
+	public synchronized void write(long game, State state, Choice choice, long decisionNanos){
+		if (buffer.remaining()<GameRecord.BYTES) {
+			try {
+				drain();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		GameRecord.write(buffer, game, state, choice, decisionNanos);
+		records++;
+	}
+
+	/** Gets number of records written
+	 * @return number of records
+	 */
+	public synchronized long getRecords(){
+		return records;
+	}
+
+	/** Writes buffered records to channel
+	 * @throws IOException if write fails
+	 */
+	public synchronized void flush() throws IOException {
+		drain();
+	}
+
+	private void drain() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) out.write(buffer);
+		buffer.clear();
+	}
+
+	/** Writes buffered records and closes channel
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			drain();
+		} finally {
+			out.close();
+		}
+	}
+
+}
@@ -0,0 +1,173 @@
+/* Copyright (c) 2014 Peter Rimshnick
+ * See the file license.txt for copying permission.
+ */
+package pmr.threes;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/** One step of a logged game: the state a move was chosen in, the move, its value and how long the
+ * decision took. Stored in {@value #BYTES} bytes by {@link GameLogWriter}: game id (8 bytes), packed
+ * board (8), value of move (8 byte double), decision time in microseconds (4), card stack (2: counts
+ * of ones, twos and threes in 3 bits each, then max rank of bonus card), hole card (1: 1, 2 or 3, or
+ * {@link #BONUS_HOLE} plus the max rank of a bonus card, whose values run from 3 up to that rank) and
+ * move code (1: 1-4 for L, R, U, D, or 0 if the game is over).
+ * @author Peter Rimshnick
+ *
+ */
+public final class GameRecord {
+
+	/** Size of record in bytes */
+	public static final int BYTES = 32;
+	/** Move code of last record of a game, when there is no move */
+	public static final int NO_MOVE = TranspositionTable.NO_MOVE;
+	/** Flag of hole card byte of a bonus card */
+	static final int BONUS_HOLE = 0x40;
+	private static final int THREE_RANK = PackedBoard.rankOf(3);
+
+	private final long game;
+	private final long board;
+	private final double value;
+	private final int decisionMicros;
+	private final int deck;
+	private final int hole;
+	private final int move;
+
+	private GameRecord(long game, long board, double value, int decisionMicros, int deck, int hole, int move){
+		this.game = game;
+		this.board = board;
+		this.value = value;
+		this.decisionMicros = decisionMicros;
+		this.deck = deck;
+		this.hole = hole;
+		this.move = move;
+	}
+
+	/** Writes record of given step to buffer
+	 * @param out buffer with at least {@link #BYTES} bytes remaining
+	 * @param game id of game
+	 * @param state state move was chosen in
+	 * @param choice move chosen, or empty choice if game is over
+	 * @param decisionNanos time taken to choose move
+	 * @throws IllegalArgumentException if hole card is a bonus card whose values are not 3 up to some max
+	 */
+	static void write(ByteBuffer out, long game, State state, Choice choice, long decisionNanos){
+		Deck stack = state.getCardStack();
+		int hole = holeCode(state.getHoleCard());
+		out.putLong(game);
+		out.putLong(state.getBoard().getPackedBoard());
+		out.putDouble(choice.isEmptyChoice()? Double.NaN : choice.getValue()/state.getProbability());
+		out.putInt((int)Math.min(Integer.MAX_VALUE, decisionNanos/1000));
+		out.putShort((short)(stack.count(Deck.ONE) | stack.count(Deck.TWO)<<3 | stack.count(Deck.THREE)<<6 | stack.getBonusRank()<<9));
+		out.put((byte)hole);
+		out.put((byte)(choice.isEmptyChoice()? NO_MOVE : TranspositionTable.moveCode(choice.getMove())));
+	}
+
+	/** Encodes hole card
+	 * @param h hole card
+	 * @return value of regular card, or {@link #BONUS_HOLE} plus max rank of bonus card
+	 */
+	private static int holeCode(HoleCard h){
+		if (h instanceof RegularHoleCard) return ((RegularHoleCard)h).value;
+		int[] ranks = ((AmbiguousHoleCard)h).possibleRanks;
+		for (int i = 0; i<ranks.length; i++){
+			if (ranks[i]!=THREE_RANK+i) throw new IllegalArgumentException("Bonus card can't be logged: " + ((AmbiguousHoleCard)h).getPossibleAdditions());
+		}
+		return BONUS_HOLE | (ranks.length==0? 0 : ranks[ranks.length-1]);
+	}
+
+	/** Reads record from buffer
+	 * @param in buffer with at least {@link #BYTES} bytes remaining
+	 * @return record
+	 */
+	static GameRecord read(ByteBuffer in){
+		long game = in.getLong();
+		long board = in.getLong();
+		double value = in.getDouble();
+		int micros = in.getInt();
+		int deck = in.getShort() & 0xFFFF;
+		int hole = in.get();
+		int move = in.get();
+		return new GameRecord(game, board, value, micros, deck, hole, move);
+	}
+
+	/** Gets id of game, e.g. its seed
+	 * @return game id
+	 */
+	public long getGame(){
+		return game;
+	}
+
+	/** Gets board move was chosen on
+	 * @return packed board
+	 */
+	public long getBoard(){
+		return board;
+	}
+
+	/** Gets hole card
+	 * @return 1, 2 or 3, or 0 for a bonus card
+	 */
+	public int getHoleCard(){
+		return (hole & BONUS_HOLE)!=0? 0 : hole;
+	}
+
+	/** Gets max rank of bonus hole card
+	 * @return max rank of the values of bonus card, or 0 if hole card is a regular card
+	 */
+	public int getBonusRank(){
+		return (hole & BONUS_HOLE)!=0? hole & ~BONUS_HOLE : 0;
+	}
+
+	/** Gets card stack
+	 * @return card stack
+	 */
+	public Deck getDeck(){
+		return Deck.of(deck & 7, (deck>>>3) & 7, (deck>>>6) & 7, deck>>>9);
+	}
+
+	/** Rebuilds state move was chosen in, with probability 1
+	 * @return state
+	 */
+	public State getState(){
+		HoleCard h;
+		if ((hole & BONUS_HOLE)!=0){
+			List<Integer> additions = new ArrayList<Integer>();
+			for (int rank = THREE_RANK; rank<=getBonusRank(); rank++){
+				additions.add(PackedBoard.valueOf(rank));
+			}
+			h = new AmbiguousHoleCard(additions);
+		}
+		else h = new RegularHoleCard(hole);
+		return new State(new Board(board), getDeck(), h, 1.0);
+	}
+
+	/** Gets move chosen
+	 * @return move code, 1-4 for L, R, U, D, or {@link #NO_MOVE} if game is over
+	 */
+	public int getMove(){
+		return move;
+	}
+
+	/** Gets value of move chosen, per unit of probability
+	 * @return value, or NaN if game is over
+	 */
+	public double getValue(){
+		return value;
+	}
+
+	/** Gets time taken to choose move
+	 * @return decision time in nanoseconds, to the microsecond
+	 */
+	public long getDecisionNanos(){
+		return decisionMicros*1000L;
+	}
+
+	@Override
+	public String toString(){
+		return "game " + game + ": " + new Board(board) + " hole=" + ((hole & BONUS_HOLE)!=0? "+" + PackedBoard.valueOf(getBonusRank()) : hole) + " deck=" + getDeck()
+			+ " move=" + (move==NO_MOVE? "-" : "LRUD".charAt(move-1)) + " value=" + value + " micros=" + decisionMicros;
+	}
+
+}
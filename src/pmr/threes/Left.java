@@ -3,9 +3,8 @@
  */
 package pmr.threes;
 
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.SplittableRandom;
 
 
 /** Represents left move
@@ -21,50 +20,18 @@ public class Left extends AbstractMove {
 	@Override
 	protected List<State> getStep1States(State startState) {
 		//Update board
-		int[][] startBoard = startState.getBoard().getBoardArray();
-		int[][] newBoard = new int[startBoard.length][startBoard.length];
-		List<Integer> modifiedRows = new ArrayList<Integer>();
-		for (int i = 0; i<startBoard.length; i++){
-			int[] row = startBoard[i];
-			int[] newRow = combineLeft(row);
-			if (!Arrays.equals(row, newRow)) modifiedRows.add(i);
-			copyInto(newRow, newBoard[i]);
-		}		
-		//if modified rows is empty, don't branch
-		if (modifiedRows.isEmpty()) return new ArrayList<State>(Arrays.asList(new State[]{startState}));
-
-		List<State> step1States = new ArrayList<State>(); //temporary states
-		HoleCard holeCard = startState.getHoleCard();
-		List<Integer> holeValues = new ArrayList<Integer>();
-		if (holeCard instanceof RegularHoleCard){
-			holeValues.add(((RegularHoleCard)holeCard).value);
-		}
-		else {
-			holeValues.addAll(((AmbiguousHoleCard)holeCard).getPossibleAdditions());
-		}
-		for (int value: holeValues) {
-			for (int i: modifiedRows){
-				int[][] modBoard = copyBoard(newBoard);
-				modBoard[i][newBoard.length-1] = value; 
-				step1States.add(new State(modBoard, startState.getCardStack(), null, startState.getProbability()* (double)1/(modifiedRows.size()*holeValues.size())));
-			}
-		}
+		return shiftAndInsert(startState, MoveKernel.LEFT, PackedBoard.SIZE-1, false);
+	}
 
-		return step1States;		
+	@Override
+	public Outcomes outcomes(SplittableRandom random, int samples) {
+		return new Successors(previousState, MoveKernel.LEFT, PackedBoard.SIZE-1, false, random, samples);
 	}
 
 	@Override
 	protected Board getNewBoard(State startState) {
 		//Update board
-		int[][] startBoard = startState.getBoard().getBoardArray();
-		int[][] newBoard = new int[startBoard.length][startBoard.length];		
-		for (int i = 0; i<startBoard.length; i++){
-			int[] row = startBoard[i];
-			int[] newRow = combineLeft(row);			
-			copyInto(newRow, newBoard[i]);
-		}		
-
-		return new Board(newBoard);		
+		return new Board(MoveKernel.moveLeft(startState.getBoard().getPackedBoard()));
 	}
 
 	@Override
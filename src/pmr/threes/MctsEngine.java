@@ -0,0 +1,389 @@
+/* Copyright (c) 2014 Peter Rimshnick
+ * See the file license.txt for copying permission.
+ */
+package pmr.threes;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/** Monte Carlo tree search engine. Alternative to the depth-limited expectimax of {@link ThreesGame}
+ * whose cost grows with the number of iterations run rather than exponentially with depth.
+ * <p>
+ * Each iteration walks down the tree picking moves by UCT and outcomes of moves at random by their
+ * probability (from {@link Move#findEndStatesForSim(SplittableRandom)}), adds one new state to the
+ * tree, and plays random moves from it to the end of the game or the rollout horizon. The evaluator's
+ * value of the final state is backed up along the path.
+ * <p>
+ * Searches use root parallelism: each thread grows its own tree from the root, with its own random
+ * stream, and visits of root moves are summed over all trees. The move visited most is chosen.
+ * <p>
+ * {@link SearchStats} of a search count the states added to the trees at each ply, and rollouts as
+ * leaf evaluations.
+ * @author Peter Rimshnick
+ *
+ */
+public class MctsEngine implements Engine {
+
+	/** Default number of iterations of a search, over all threads */
+	public static final int DEFAULT_ITERATIONS = 20000;
+	/** Default number of random moves played from a new state */
+	public static final int DEFAULT_HORIZON = 10;
+	/** Default weight of exploration term of UCT */
+	public static final double DEFAULT_EXPLORATION = Math.sqrt(2);
+
+	private final Evaluator evaluator;
+	private final int threads;
+	private final ForkJoinPool pool;
+	private final boolean ownsPool;
+	private volatile int iterations = DEFAULT_ITERATIONS;
+	private volatile Duration budget;
+	private volatile int horizon = DEFAULT_HORIZON;
+	private volatile double exploration = DEFAULT_EXPLORATION;
+	private volatile long seed = ThreesGame.DEFAULT_SEED;
+
+	/** Constructs engine with default evaluator, using one tree per available processor
+	 */
+	public MctsEngine(){
+		this(new DefaultEvaluator(.39, .47, .14), Runtime.getRuntime().availableProcessors(), null);
+	}
+
+	/** Constructs engine
+	 * @param evaluator evaluates final states of rollouts
+	 * @param threads number of trees grown in parallel
+	 * @param pool pool to run searches on, or null to create one owned by this instance. A supplied
+	 * pool is not shut down by {@link #close()}
+	 */
+	public MctsEngine(Evaluator evaluator, int threads, ForkJoinPool pool){
+		if (threads<1) throw new IllegalArgumentException("Bad number of threads: " + threads);
+		this.evaluator = evaluator;
+		this.threads = threads;
+		this.ownsPool = pool==null;
+		this.pool = ownsPool? new ForkJoinPool(threads) : pool;
+	}
+
+	/** Sets number of iterations of a search, over all threads
+	 * @param iterations number of iterations, or 0 for no limit, in which case a time budget must be set
+	 */
+	public void setIterations(int iterations){
+		if (iterations<0) throw new IllegalArgumentException("Bad number of iterations: " + iterations);
+		this.iterations = iterations;
+	}
+
+	/** Gets number of iterations of a search
+	 * @return number of iterations, or 0 for no limit
+	 */
+	public int getIterations(){
+		return iterations;
+	}
+
+	/** Sets time allowed for a search. Search stops at whichever of iteration limit and time budget is reached first
+	 * @param budget time allowed, or null for no limit
+	 */
+	public void setTimeBudget(Duration budget){
+		this.budget = budget;
+	}
+
+	/** Gets time allowed for a search
+	 * @return time allowed, or null for no limit
+	 */
+	public Duration getTimeBudget(){
+		return budget;
+	}
+
+	/** Sets number of random moves played from a new state before it is evaluated
+	 * @param horizon number of moves
+	 */
+	public void setHorizon(int horizon){
+		if (horizon<0) throw new IllegalArgumentException("Bad horizon: " + horizon);
+		this.horizon = horizon;
+	}
+
+	/** Sets weight of exploration term of UCT. Rewards are scaled to [0,1] by the range seen in the tree
+	 * @param exploration exploration weight
+	 */
+	public void setExploration(double exploration){
+		this.exploration = exploration;
+	}
+
+	/** Sets seed of searches. With an iteration limit and no time budget, searches of the same state with
+	 * the same seed and number of threads pick the same move
+	 * @param seed seed of searches
+	 */
+	public void setSeed(long seed){
+		this.seed = seed;
+	}
+
+	@Override
+	public Choice findBestMove(State start){
+		int limit = iterations;
+		Duration b = budget;
+		if (limit==0 && b==null) throw new IllegalStateException("No iteration limit or time budget");
+		long deadline = b==null? SearchContext.NO_DEADLINE : System.nanoTime() + b.toNanos();
+		Evaluator eval = evaluator.forRoot(start.getBoard());
+		SearchStats stats = new SearchStats();
+		List<TreeTask> tasks = new ArrayList<TreeTask>(threads);
+		for (int t = 0; t<threads; t++){
+			int treeLimit = limit==0? Integer.MAX_VALUE : (limit + threads - 1 - t)/threads;
+			SplittableRandom random = new SplittableRandom(SearchContext.streamSeed(seed, start, t));
+			tasks.add(new TreeTask(new Tree(eval, start, random, horizon, exploration, stats), treeLimit, deadline));
+		}
+		pool.invoke(new RecursiveTask<Void>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected Void compute() {
+				ForkJoinTask.invokeAll(tasks);
+				return null;
+			}
+		});
+		//sum visits and rewards of root moves over trees
+		int[] visits = new int[5];
+		double[] total = new double[5];
+		for (TreeTask task: tasks){
+			for (Action a: task.tree.root.actions){
+				int code = TranspositionTable.moveCode(a.move);
+				visits[code] += a.visits;
+				total[code] += a.total;
+			}
+		}
+		int best = TranspositionTable.NO_MOVE;
+		for (int code = 1; code<visits.length; code++){
+			if (visits[code]==0) continue;
+			if (best==TranspositionTable.NO_MOVE || visits[code]>visits[best]
+					|| (visits[code]==visits[best] && total[code]>total[best])) best = code;
+		}
+		if (best==TranspositionTable.NO_MOVE) return ThreesGame.finish(Choice.getEmptyChoice(stats));
+		return ThreesGame.finish(new Choice(TranspositionTable.moveFor(best, start), total[best]/visits[best], 0, stats));
+	}
+
+	/** Shuts down thread pool used for search, unless it was supplied by the caller
+	 */
+	@Override
+	public void close(){
+		if (ownsPool) pool.shutdown();
+	}
+
+	/** Grows one tree on fork/join pool
+	 * @author Peter Rimshnick
+	 *
+	 */
+	private static class TreeTask extends RecursiveTask<Void> {
+		private static final long serialVersionUID = 1L;
+		private final Tree tree;
+		private final int limit;
+		private final long deadline;
+		private final long created = System.nanoTime();
+
+		TreeTask(Tree tree, int limit, long deadline){
+			this.tree = tree;
+			this.limit = limit;
+			this.deadline = deadline;
+		}
+
+		@Override
+		protected Void compute() {
+			tree.stats.addQueueWait(System.nanoTime() - created);
+			tree.stats.addNodes(0, 1);
+			tree.expand(tree.root);
+			if (tree.root.actions.length==0) return null;
+			for (int i = 0; i<limit; i++){
+				//check clock every few iterations, but always run at least one
+				if (deadline!=SearchContext.NO_DEADLINE && (i&15)==0 && i>0 && System.nanoTime()-deadline>0) break;
+				tree.iterate();
+			}
+			return null;
+		}
+	}
+
+	/** State in tree where a move is chosen
+	 */
+	private static final class Node {
+		final State state;
+		/** Legal moves, or null until expanded */
+		Action[] actions;
+		int visits;
+
+		Node(State state){
+			this.state = state;
+		}
+	}
+
+	/** Move from a node. Its outcomes are chance events, with children created as they are sampled
+	 */
+	private static final class Action {
+		final Move move;
+		final State[] outcomes;
+		final double[] cumulative;
+		final Node[] children;
+		int visits;
+		double total;
+
+		Action(Move move, State[] outcomes){
+			this.move = move;
+			this.outcomes = outcomes;
+			this.children = new Node[outcomes.length];
+			this.cumulative = new double[outcomes.length];
+			double sum = 0;
+			for (int i = 0; i<outcomes.length; i++){
+				sum += outcomes[i].getProbability();
+				cumulative[i] = sum;
+			}
+		}
+
+		/** Picks outcome at random by probability
+		 * @param random source of randomness
+		 * @return index of outcome
+		 */
+		int sample(SplittableRandom random){
+			double r = random.nextDouble()*cumulative[cumulative.length-1];
+			int i = 0;
+			while (i<cumulative.length-1 && r>=cumulative[i]) i++;
+			return i;
+		}
+	}
+
+	/** Tree grown by one thread. Not thread safe
+	 */
+	private static final class Tree {
+		final Evaluator eval;
+		final Node root;
+		final SplittableRandom random;
+		final int horizon;
+		final double exploration;
+		final SearchStats stats;
+		private final List<Action> path = new ArrayList<Action>();
+		private double minReward = Double.POSITIVE_INFINITY;
+		private double maxReward = Double.NEGATIVE_INFINITY;
+
+		Tree(Evaluator eval, State start, SplittableRandom random, int horizon, double exploration, SearchStats stats){
+			this.eval = eval;
+			this.root = new Node(new State(start));
+			this.random = random;
+			this.horizon = horizon;
+			this.exploration = exploration;
+			this.stats = stats;
+		}
+
+		/** Runs one iteration: selection, expansion, rollout and backup
+		 */
+		void iterate(){
+			path.clear();
+			Node node = root;
+			double reward;
+			while (true){
+				node.visits++;
+				if (node.actions==null) expand(node);
+				if (node.actions.length==0){
+					reward = eval.evaluate(node.state);
+					break;
+				}
+				Action a = select(node);
+				path.add(a);
+				int k = a.sample(random);
+				Node child = a.children[k];
+				if (child==null){
+					child = new Node(new State(a.outcomes[k]));
+					a.children[k] = child;
+					child.visits++;
+					stats.addNodes(path.size(), 1);
+					reward = rollout(child.state);
+					break;
+				}
+				node = child;
+			}
+			stats.addLeafEvaluations(1);
+			if (reward<minReward) minReward = reward;
+			if (reward>maxReward) maxReward = reward;
+			for (Action a: path){
+				a.visits++;
+				a.total += reward;
+			}
+		}
+
+		/** Finds legal moves of node and their outcomes
+		 * @param node node
+		 */
+		void expand(Node node){
+			if (node.actions!=null) return;
+			List<Action> actions = new ArrayList<Action>(4);
+			for (Move m: new Move[]{new Left(node.state), new Right(node.state), new Up(node.state), new Down(node.state)}){
+				State[] outcomes = m.findEndStatesForSim(random);
+				if (outcomes.length==1 && outcomes[0]==node.state) continue;
+				actions.add(new Action(m, outcomes));
+			}
+			node.actions = actions.toArray(new Action[actions.size()]);
+		}
+
+		/** Picks move of node by UCT, trying each move once first
+		 * @param node expanded node
+		 * @return move
+		 */
+		private Action select(Node node){
+			Action best = null;
+			double bestScore = Double.NEGATIVE_INFINITY;
+			double range = maxReward - minReward;
+			double logVisits = Math.log(node.visits);
+			for (Action a: node.actions){
+				if (a.visits==0) return a;
+				double mean = a.total/a.visits;
+				double exploit = range>0? (mean - minReward)/range : .5;
+				double score = exploit + exploration*Math.sqrt(logVisits/a.visits);
+				if (score>bestScore){
+					bestScore = score;
+					best = a;
+				}
+			}
+			return best;
+		}
+
+		/** Plays random moves from state to end of game or horizon
+		 * @param state start of rollout
+		 * @return value of final state
+		 */
+		private double rollout(State state){
+			Move[] moves = new Move[4];
+			for (int step = 0; step<horizon; step++){
+				moves[0] = new Left(state);
+				moves[1] = new Right(state);
+				moves[2] = new Up(state);
+				moves[3] = new Down(state);
+				State next = null;
+				//try moves in random order until a legal one is found
+				for (int n = moves.length; n>0 && next==null; n--){
+					int i = random.nextInt(n);
+					Move m = moves[i];
+					moves[i] = moves[n-1];
+					State[] outcomes = m.findEndStatesForSim(random);
+					if (outcomes.length==1 && outcomes[0]==state) continue;
+					next = pick(outcomes);
+				}
+				if (next==null) break;
+				state = new State(next);
+			}
+			return eval.evaluate(state);
+		}
+
+		/** Picks outcome at random by probability
+		 * @param outcomes outcomes of move
+		 * @return outcome
+		 */
+		private State pick(State[] outcomes){
+			double sum = 0;
+			for (State s: outcomes){
+				sum += s.getProbability();
+			}
+			double r = random.nextDouble()*sum;
+			for (State s: outcomes){
+				r -= s.getProbability();
+				if (r<0) return s;
+			}
+			return outcomes[outcomes.length-1];
+		}
+	}
+
+}
@@ -3,6 +3,8 @@
  */
 package pmr.threes;
 
+import java.util.SplittableRandom;
+
 /** Interface for Move. A Threes move can simply be up, down, left, or right.
  * @author Peter Rimshnick
  *
@@ -15,11 +17,42 @@ public interface Move {
 	 */
 	public State[] findEndStatesForSearch();
 
+	/** Returns possible outcomes states for use with search, drawing next hole card, and new card stack
+	 * if stack runs out, from given random stream
+	 * @param random source of randomness
+	 * @return array of possible resulting states from move
+	 */
+	public State[] findEndStatesForSearch(SplittableRandom random);
+
+	/** Returns possible outcome states for use with search, drawing given number of next hole cards for
+	 * each placement of the current one, or using every possible card
+	 * @param random source of randomness
+	 * @param samples number of cards drawn, or {@link SamplingPolicy#EXACT} for every possible card
+	 * @return array of possible resulting states from move
+	 */
+	public State[] findEndStatesForSearch(SplittableRandom random, int samples);
+
+	/** Returns cursor over possible outcome states for use with search, like {@link #findEndStatesForSearch(SplittableRandom, int)}
+	 * but generating them one at a time, with duplicates merged. A move that leaves the board unchanged
+	 * has no outcomes
+	 * @param random source of randomness
+	 * @param samples number of cards drawn, or {@link SamplingPolicy#EXACT} for every possible card
+	 * @return cursor over resulting states from move
+	 */
+	public Outcomes outcomes(SplittableRandom random, int samples);
+
 	/** Returns possible outcome states for use with simulation. Includes all possible states based
 	 * on next hole card
 	 * @return array of possible resulting states from move
 	 */
 	public State[] findEndStatesForSim();
+
+	/** Returns possible outcome states for use with simulation, drawing new card stack from given
+	 * random stream if stack runs out
+	 * @param random source of randomness
+	 * @return array of possible resulting states from move
+	 */
+	public State[] findEndStatesForSim(SplittableRandom random);
 	
 
 }
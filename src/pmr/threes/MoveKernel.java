@@ -0,0 +1,80 @@
+/* Copyright (c) 2014 Peter Rimshnick
+ * See the file license.txt for copying permission.
+ */
+package pmr.threes;
+
+/** Table driven move generation on {@link PackedBoard} boards. For every possible 16-bit packed row,
+ * the left and right combined rows are precomputed once, so a move costs one lookup per row.
+ * @author Peter Rimshnick
+ *
+ */
+final class MoveKernel {
+
+	/** Set in a table entry if combining changes the row */
+	static final int CHANGED = 1<<16;
+
+	/** Mask of resulting row in a table entry */
+	static final int ROW_MASK = 0xFFFF;
+
+	/** Left combined row for every packed row, plus {@link #CHANGED} flag */
+	static final int[] LEFT = new int[1<<16];
+
+	/** Right combined row for every packed row, plus {@link #CHANGED} flag */
+	static final int[] RIGHT = new int[1<<16];
+
+	static {
+		for (int row = 0; row<LEFT.length; row++){
+			int left = PackedBoard.combineRowLeft(row);
+			int right = PackedBoard.combineRowRight(row);
+			LEFT[row] = left | (left!=row? CHANGED : 0);
+			RIGHT[row] = right | (right!=row? CHANGED : 0);
+		}
+	}
+
+	private MoveKernel(){}
+
+	/** Applies row table to every row of board
+	 * @param board packed board
+	 * @param table {@link #LEFT} or {@link #RIGHT}
+	 * @return new packed board
+	 */
+	static long apply(long board, int[] table){
+		return (long)(table[(int)board & ROW_MASK] & ROW_MASK)
+				| (long)(table[(int)(board>>>16) & ROW_MASK] & ROW_MASK)<<16
+				| (long)(table[(int)(board>>>32) & ROW_MASK] & ROW_MASK)<<32
+				| (long)(table[(int)(board>>>48) & ROW_MASK] & ROW_MASK)<<48;
+	}
+
+	/** Left move, without insertion of hole card
+	 * @param board packed board
+	 * @return new packed board
+	 */
+	static long moveLeft(long board){
+		return apply(board, LEFT);
+	}
+
+	/** Right move, without insertion of hole card
+	 * @param board packed board
+	 * @return new packed board
+	 */
+	static long moveRight(long board){
+		return apply(board, RIGHT);
+	}
+
+	/** Up move, without insertion of hole card. Up = transpose(left)
+	 * @param board packed board
+	 * @return new packed board
+	 */
+	static long moveUp(long board){
+		return PackedBoard.transpose(apply(PackedBoard.transpose(board), LEFT));
+	}
+
+	/** Down move, without insertion of hole card. Down = transpose(right)
+	 * @param board packed board
+	 * @return new packed board
+	 */
+	static long moveDown(long board){
+		return PackedBoard.transpose(apply(PackedBoard.transpose(board), RIGHT));
+	}
+
+}
@@ -3,6 +3,8 @@
  */
 package pmr.threes;
 
+import java.util.SplittableRandom;
+
 /** Used as sentinel to represent end of portion of game tree to be searched
  * @author Peter Rimshnick
  *
@@ -23,8 +25,28 @@ public class NullMove implements Move {
 		return new State[]{state};
 	}
 
+	@Override
+	public State[] findEndStatesForSearch(SplittableRandom random) {
+		return new State[]{state};
+	}
+
+	@Override
+	public State[] findEndStatesForSearch(SplittableRandom random, int samples) {
+		return new State[]{state};
+	}
+
+	@Override
+	public Outcomes outcomes(SplittableRandom random, int samples) {
+		return Outcomes.of(state);
+	}
+
 	@Override
 	public State[] findEndStatesForSim() {
 		return new State[]{state};
 	}	
+
+	@Override
+	public State[] findEndStatesForSim(SplittableRandom random) {
+		return new State[]{state};
+	}
 }
@@ -0,0 +1,289 @@
+/* Copyright (c) 2014 Peter Rimshnick
+ * See the file license.txt for copying permission.
+ */
+package pmr.threes;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/** Precomputed best moves of early-game states, kept in a file that is memory mapped and binary
+ * searched in place. Looking up a state copies nothing to the heap, and opening a book reads only its
+ * header, so a book of millions of states costs almost no memory or startup time. See
+ * {@link ThreesGame#setOpeningBook(OpeningBook)}.
+ * <p>
+ * The file is a {@value #HEADER_BYTES} byte header (magic, version, depth of searches, flags, number
+ * of entries, then the settings of the searches: seed, minimum probability, evaluator parameter tag and
+ * sampling policy hash) followed by entries of {@value #ENTRY_BYTES} bytes, sorted by
+ * {@link StateKey}: packed board, code of hole card and card stack, move code and value of move.
+ * All numbers are big-endian.
+ * <p>
+ * Books are built offline by {@link #build(Path, ThreesGame, int, int, long)}, from random start
+ * states and the states the engine's own moves lead to in the first few plies. A book only gives the
+ * right moves for engines with the same settings as the one that built it, so engines only use books
+ * that {@link #matches(ThreesGame)} them.
+ * @author Peter Rimshnick
+ *
+ */
+public final class OpeningBook implements Closeable {
+
+	/** Start of every book file */
+	public static final int MAGIC = 0x54424F4B;
+	/** Version of file format */
+	public static final int VERSION = 2;
+	/** Size of header in bytes */
+	public static final int HEADER_BYTES = 56;
+	/** Flag of books searched with pruning */
+	private static final int PRUNING = 1;
+	/** Size of an entry in bytes */
+	public static final int ENTRY_BYTES = 21;
+
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	private final int depth;
+	private final boolean pruning;
+	private final long seed;
+	private final double minProbability;
+	private final long evaluatorTag;
+	private final int samplingHash;
+	private final int size;
+
+	private OpeningBook(FileChannel channel, MappedByteBuffer buffer){
+		this.channel = channel;
+		this.buffer = buffer;
+		if (buffer.capacity()<HEADER_BYTES || buffer.getInt(0)!=MAGIC) throw new IllegalArgumentException("Not an opening book");
+		if (buffer.getInt(4)!=VERSION) throw new IllegalArgumentException("Unsupported book version: " + buffer.getInt(4));
+		this.depth = buffer.getInt(8);
+		this.pruning = (buffer.getInt(12) & PRUNING)!=0;
+		long count = buffer.getLong(16);
+		this.seed = buffer.getLong(24);
+		this.minProbability = buffer.getDouble(32);
+		this.evaluatorTag = buffer.getLong(40);
+		this.samplingHash = buffer.getInt(48);
+		if (count<0 || HEADER_BYTES + count*ENTRY_BYTES!=buffer.capacity()) throw new IllegalArgumentException("Truncated book");
+		this.size = (int)count;
+	}
+
+	/** Opens book file, mapping it into memory
+	 * @param path book file
+	 * @return book
+	 * @throws IOException if file cannot be read
+	 * @throws IllegalArgumentException if file is not a book, or larger than 2GB
+	 */
+	public static OpeningBook open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			if (channel.size()>Integer.MAX_VALUE) throw new IllegalArgumentException("Book too large: " + channel.size());
+			return new OpeningBook(channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/** Gets depth of searches that found moves of book
+	 * @return depth
+	 */
+	public int getDepth(){
+		return depth;
+	}
+
+	/** Gets seed of searches that found moves of book
+	 * @return seed
+	 */
+	public long getSeed(){
+		return seed;
+	}
+
+	/** Indicates whether searches that found moves of book were pruned
+	 * @return true if pruned
+	 */
+	public boolean isPruning(){
+		return pruning;
+	}
+
+	/** Gets minimum probability of searches that found moves of book
+	 * @return minimum probability
+	 */
+	public double getMinProbability(){
+		return minProbability;
+	}
+
+	/** Gets parameter tag of evaluator of searches that found moves of book
+	 * @return evaluator tag, see {@link Evaluator#getParameterTag()}
+	 */
+	public long getEvaluatorTag(){
+		return evaluatorTag;
+	}
+
+	/** Indicates whether moves of book are the moves given engine finds, at the book's depth: whether
+	 * they were searched with the same seed, pruning, minimum probability, sampling and evaluator
+	 * parameters as engine's current settings. Books of evaluators that can't identify their
+	 * parameters match no engine
+	 * @param game engine
+	 * @return true if engine can use book
+	 */
+	public boolean matches(ThreesGame game){
+		return evaluatorTag!=0 && evaluatorTag==game.getEvaluator().getParameterTag() && seed==game.getSeed()
+				&& pruning==game.isPruning() && minProbability==game.getMinProbability()
+				&& samplingHash==game.getSamplingPolicy().hashCode();
+	}
+
+	/** Gets number of states in book
+	 * @return number of entries
+	 */
+	public int size(){
+		return size;
+	}
+
+	/** Looks up best move of given state. Safe to call from many threads
+	 * @param state state
+	 * @return best move and its value, weighted by probability of state, or null if state is not in book
+	 */
+	public Choice lookup(State state){
+		long board = state.getBoard().getPackedBoard();
+		int code = TranspositionTable.stateCode(state);
+		int lo = 0, hi = size-1;
+		while (lo<=hi){
+			int mid = (lo+hi)>>>1;
+			int offset = HEADER_BYTES + mid*ENTRY_BYTES;
+			int c = Long.compare(buffer.getLong(offset), board);
+			if (c==0) c = Integer.compare(buffer.getInt(offset+8), code);
+			if (c<0) lo = mid+1;
+			else if (c>0) hi = mid-1;
+			else {
+				int move = buffer.get(offset+12);
+				double value = buffer.getDouble(offset+13)*state.getProbability();
+				if (move==TranspositionTable.NO_MOVE) return Choice.getEmptyChoice();
+				return new Choice(TranspositionTable.moveFor(move, state), value, depth);
+			}
+		}
+		return null;
+	}
+
+	/** Closes file of book. The mapping itself is released once the book is no longer referenced
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/** Writes book of given states and their best moves
+	 * @param path book file, replaced if it exists
+	 * @param game engine that found moves, at its depth and settings
+	 * @param states states, each with probability 1, with no two of the same {@link StateKey}
+	 * @param choices best move of each state
+	 * @throws IOException if file cannot be written
+	 */
+	static void write(Path path, ThreesGame game, List<State> states, List<Choice> choices) throws IOException {
+		List<Integer> order = new ArrayList<Integer>(states.size());
+		List<StateKey> keys = new ArrayList<StateKey>(states.size());
+		for (int i = 0; i<states.size(); i++){
+			order.add(i);
+			keys.add(new StateKey(states.get(i)));
+		}
+		Collections.sort(order, (a, b) -> keys.get(a).compareTo(keys.get(b)));
+		try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+			ByteBuffer buf = ByteBuffer.allocate(1<<16);
+			buf.putInt(MAGIC).putInt(VERSION).putInt(game.getDepth()).putInt(game.isPruning()? PRUNING : 0).putLong(states.size());
+			buf.putLong(game.getSeed()).putDouble(game.getMinProbability()).putLong(game.getEvaluator().getParameterTag());
+			buf.putInt(game.getSamplingPolicy().hashCode()).putInt(0);
+			for (int i: order){
+				if (buf.remaining()<ENTRY_BYTES) drain(out, buf);
+				Choice c = choices.get(i);
+				StateKey key = keys.get(i);
+				buf.putLong(key.board).putInt(key.code);
+				buf.put((byte)(c.isEmptyChoice()? TranspositionTable.NO_MOVE : TranspositionTable.moveCode(c.getMove())));
+				buf.putDouble(c.isEmptyChoice()? 0 : c.getValue()/states.get(i).getProbability());
+			}
+			drain(out, buf);
+		}
+	}
+
+	/** Writes contents of buffer to channel and clears it
+	 * @param out channel
+	 * @param buf buffer being filled
+	 * @throws IOException if write fails
+	 */
+	private static void drain(FileChannel out, ByteBuffer buf) throws IOException {
+		buf.flip();
+		while (buf.hasRemaining()) out.write(buf);
+		buf.clear();
+	}
+
+	/** Builds book by searching random start states (see {@link SelfPlay#randomStart(Random)}) and
+	 * the states reached from them in the first plies, following the best move found and a random outcome
+	 * of it. Each ply is searched as one batch across the game's pool.
+	 * @param path book file, replaced if it exists
+	 * @param game engine searching states, at its own depth and settings
+	 * @param positions number of random start states
+	 * @param plies number of plies searched, 1 for start states only
+	 * @param seed seed of random start states and outcomes
+	 * @return number of states in book
+	 * @throws IOException if file cannot be written
+	 */
+	public static int build(Path path, ThreesGame game, int positions, int plies, long seed) throws IOException {
+		Set<StateKey> seen = new LinkedHashSet<StateKey>();
+		List<State> states = new ArrayList<State>();
+		List<Choice> choices = new ArrayList<Choice>();
+		List<State> level = new ArrayList<State>(positions);
+		for (int i = 0; i<positions; i++){
+			level.add(SelfPlay.randomStart(new Random(seed + i)));
+		}
+		SplittableRandom random = new SplittableRandom(seed);
+		for (int ply = 0; ply<plies && !level.isEmpty(); ply++){
+			List<State> batch = new ArrayList<State>(level.size());
+			for (State s: level){
+				if (seen.add(new StateKey(s))) batch.add(s);
+			}
+			List<Choice> found = game.findBestMoves(batch);
+			List<State> next = new ArrayList<State>(batch.size());
+			for (int i = 0; i<batch.size(); i++){
+				Choice c = found.get(i);
+				states.add(batch.get(i));
+				choices.add(c);
+				if (c.isEmptyChoice()) continue;
+				State[] outcomes = c.getMove().findEndStatesForSim(random.split());
+				next.add(new State(ThreesGame.pickState(outcomes, new Random(random.nextLong()))));
+			}
+			level = next;
+		}
+		write(path, game, states, choices);
+		return states.size();
+	}
+
+	/** Builds book file
+	 * @param args output file, number of random start states (default 10000), depth (default 7),
+	 * plies (default 3), seed (default 0)
+	 * @throws IOException if file cannot be written
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length<1) {
+			System.err.println("Usage: OpeningBook file [positions] [depth] [plies] [seed]");
+			return;
+		}
+		Path path = Paths.get(args[0]);
+		int positions = args.length>1? Integer.parseInt(args[1]) : 10000;
+		int depth = args.length>2? Integer.parseInt(args[2]) : 7;
+		int plies = args.length>3? Integer.parseInt(args[3]) : 3;
+		long seed = args.length>4? Long.parseLong(args[4]) : 0;
+		long start = System.nanoTime();
+		try (ThreesGame game = new ThreesGame(depth, .39, .47, .14)){
+			int size = build(path, game, positions, plies, seed);
+			System.out.printf("Wrote %d states at depth %d to %s in %.1f s%n", size, depth, path, (System.nanoTime()-start)/1e9);
+		}
+	}
+
+}
@@ -0,0 +1,72 @@
+/* Copyright (c) 2014 Peter Rimshnick
+ * See the file license.txt for copying permission.
+ */
+package pmr.threes;
+
+/** Cursor over possible outcome states of a move. Outcomes are generated one at a time as they are
+ * asked for, so a search that stops early, because the move is pruned or the search is cancelled,
+ * never builds the rest.
+ * <p>
+ * Outcomes with the same board, hole card and card stack are merged into one with their summed
+ * probability as they are generated. Not thread safe.
+ * @author Peter Rimshnick
+ *
+ */
+public interface Outcomes {
+
+	/** Gets next outcome
+	 * @return next outcome, or null if there are none left
+	 */
+	public State next();
+
+	/** Number of outcomes not returned yet. Since outcomes are merged as they are generated, fewer
+	 * may turn out to be left
+	 * @return upper bound of number of outcomes left, 0 if none are
+	 */
+	public int remaining();
+
+	/** Total probability of all outcomes, returned or not
+	 * @return sum of probabilities of outcomes
+	 */
+	public double probability();
+
+	/** Number of outcomes merged into others so far
+	 * @return number of merged outcomes
+	 */
+	public int merged();
+
+	/** Creates cursor over given outcomes
+	 * @param states outcomes, already merged
+	 * @return cursor over states
+	 */
+	public static Outcomes of(final State... states){
+		return new Outcomes() {
+			private int next;
+
+			@Override
+			public State next() {
+				return next<states.length? states[next++] : null;
+			}
+
+			@Override
+			public int remaining() {
+				return states.length-next;
+			}
+
+			@Override
+			public double probability() {
+				double sum = 0;
+				for (State s: states){
+					sum += s.getProbability();
+				}
+				return sum;
+			}
+
+			@Override
+			public int merged() {
+				return 0;
+			}
+		};
+	}
+
+}
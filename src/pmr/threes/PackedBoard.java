@@ -0,0 +1,208 @@
+/* Copyright (c) 2014 Peter Rimshnick
+ * See the file license.txt for copying permission.
+ */
+package pmr.threes;
+
+/** Board representation packed into a single long. Each cell holds a 4-bit rank
+ * (0=empty, 1, 2, 3, 6, 12, ... map to ranks 0, 1, 2, 3, 4, 5, ...), cell (row, col) is
+ * stored at nibble 4*row+col, so each row occupies 16 contiguous bits with column 0 lowest.
+ * @author Peter Rimshnick
+ *
+ */
+public final class PackedBoard {
+
+	/** Number of rows (and columns) of board */
+	public static final int SIZE = 4;
+
+	/** Highest rank that fits in a cell */
+	public static final int MAX_RANK = 15;
+
+	private static final long ROW_MASK = 0xFFFFL;
+	private static final int CELL_MASK = 0xF;
+
+	private PackedBoard(){}
+
+	/** Converts card value to rank
+	 * @param value card value (0 for empty)
+	 * @return rank of card
+	 */
+	public static int rankOf(int value){
+		if (value<3) {
+			if (value<0) throw new IllegalArgumentException("Not a card value: " + value);
+			return value;
+		}
+		int multiple = value/3;
+		if (multiple*3!=value || Integer.bitCount(multiple)!=1) throw new IllegalArgumentException("Not a card value: " + value);
+		int rank = Integer.numberOfTrailingZeros(multiple) + 3;
+		if (rank>MAX_RANK) throw new IllegalArgumentException("Card value too large: " + value);
+		return rank;
+	}
+
+	/** Converts rank to card value
+	 * @param rank rank of card
+	 * @return card value (0 for empty)
+	 */
+	public static int valueOf(int rank){
+		return rank<3? rank : 3<<(rank-3);
+	}
+
+	/** Packs 4x4 array board rep
+	 * @param boardArray board in array form
+	 * @return packed board
+	 */
+	public static long pack(int[][] boardArray){
+		long board = 0;
+		for (int i = 0; i<SIZE; i++){
+			for (int j = 0; j<SIZE; j++){
+				board = set(board, i, j, rankOf(boardArray[i][j]));
+			}
+		}
+		return board;
+	}
+
+	/** Unpacks board into new 4x4 array
+	 * @param board packed board
+	 * @return board in array form
+	 */
+	public static int[][] unpack(long board){
+		int[][] boardArray = new int[SIZE][SIZE];
+		for (int i = 0; i<SIZE; i++){
+			for (int j = 0; j<SIZE; j++){
+				boardArray[i][j] = valueOf(get(board, i, j));
+			}
+		}
+		return boardArray;
+	}
+
+	/** Gets rank of cell
+	 * @param board packed board
+	 * @param row
+	 * @param col
+	 * @return rank of cell
+	 */
+	public static int get(long board, int row, int col){
+		return (int)(board>>>((row*SIZE+col)<<2)) & CELL_MASK;
+	}
+
+	/** Sets rank of cell
+	 * @param board packed board
+	 * @param row
+	 * @param col
+	 * @param rank new rank of cell
+	 * @return new packed board
+	 */
+	public static long set(long board, int row, int col, int rank){
+		int shift = (row*SIZE+col)<<2;
+		return (board & ~((long)CELL_MASK<<shift)) | ((long)rank<<shift);
+	}
+
+	/** Gets packed row
+	 * @param board packed board
+	 * @param row
+	 * @return 16-bit packed row
+	 */
+	public static int getRow(long board, int row){
+		return (int)((board>>>(row<<4)) & ROW_MASK);
+	}
+
+	/** Sets packed row
+	 * @param board packed board
+	 * @param row
+	 * @param packedRow 16-bit packed row
+	 * @return new packed board
+	 */
+	public static long setRow(long board, int row, int packedRow){
+		int shift = row<<4;
+		return (board & ~(ROW_MASK<<shift)) | ((long)packedRow<<shift);
+	}
+
+	/** Gets rank of cell within packed row
+	 * @param packedRow 16-bit packed row
+	 * @param col
+	 * @return rank of cell
+	 */
+	public static int getCell(int packedRow, int col){
+		return (packedRow>>>(col<<2)) & CELL_MASK;
+	}
+
+	/** Produces transpose of packed board
+	 * @param board packed board
+	 * @return transpose of board
+	 */
+	public static long transpose(long board){
+		//swap 4x4 blocks of nibbles in two steps: 2x2 blocks of cells, then cells within blocks
+		long t;
+		t = (board ^ (board>>>12)) & 0x0000F0F00000F0F0L;
+		board ^= t ^ (t<<12);
+		t = (board ^ (board>>>24)) & 0x00000000FF00FF00L;
+		board ^= t ^ (t<<24);
+		return board;
+	}
+
+	/** Does a left combination operation on packed row. Reference implementation used to build {@link MoveKernel} tables
+	 * @param packedRow 16-bit packed row
+	 * @return new version of row after combination
+	 */
+	public static int combineRowLeft(int packedRow){
+		for (int i = 0; i<SIZE-1; i++){
+			int a = getCell(packedRow, i);
+			int b = getCell(packedRow, i+1);
+			int merged;
+			if (a==0) merged = -1;
+			else if (a==b && a>2 && a<MAX_RANK) merged = a+1;
+			else if (a+b==3 && a!=0 && b!=0) merged = 3;
+			else continue;
+			//keep cells before i, write merged (if any), then shift the rest left by one
+			int lowMask = (1<<(i<<2))-1;
+			int shifted = (packedRow>>>4) & ~lowMask & 0x0FFF;
+			int result = (packedRow & lowMask) | shifted;
+			if (merged>=0) result = (result & ~(CELL_MASK<<(i<<2))) | (merged<<(i<<2));
+			return result;
+		}
+		return packedRow;
+	}
+
+	/** Does a right combination operation on packed row
+	 * @param packedRow 16-bit packed row
+	 * @return new version of row after combination
+	 */
+	public static int combineRowRight(int packedRow){
+		return reverseRow(combineRowLeft(reverseRow(packedRow)));
+	}
+
+	/** Finds rows that differ between two packed boards
+	 * @param board1 packed board
+	 * @param board2 packed board
+	 * @return bit mask with bit i set if row i differs
+	 */
+	public static int changedRows(long board1, long board2){
+		long diff = board1 ^ board2;
+		int mask = 0;
+		for (int i = 0; i<SIZE; i++){
+			if (((diff>>>(i<<4)) & ROW_MASK)!=0) mask |= 1<<i;
+		}
+		return mask;
+	}
+
+	/** Reverses order of cells in packed row
+	 * @param packedRow 16-bit packed row
+	 * @return reversed row
+	 */
+	public static int reverseRow(int packedRow){
+		return ((packedRow&0xF)<<12) | ((packedRow&0xF0)<<4) | ((packedRow>>>4)&0xF0) | ((packedRow>>>12)&0xF);
+	}
+
+	/** Finds highest rank on board
+	 * @param board packed board
+	 * @return max rank of any cell
+	 */
+	public static int maxRank(long board){
+		int max = 0;
+		for (int k = 0; k<SIZE*SIZE; k++){
+			int rank = (int)(board>>>(k<<2)) & CELL_MASK;
+			if (rank>max) max = rank;
+		}
+		return max;
+	}
+
+}
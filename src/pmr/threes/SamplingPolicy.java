@@ -0,0 +1,100 @@
+/* Copyright (c) 2014 Peter Rimshnick
+ * See the file license.txt for copying permission.
+ */
+package pmr.threes;
+
+import java.util.Arrays;
+
+/** Decides, for each ply of a search, how the next hole card is chosen after a move: either every
+ * possible card with its probability (exact), or a number of cards drawn at random from the stack.
+ * The last ply given applies to all deeper plies. Stacks with no more kinds of cards than would be
+ * drawn, or than the exact threshold, are always enumerated exactly, since that is no more work.
+ * @author Peter Rimshnick
+ *
+ */
+public final class SamplingPolicy {
+
+	/** Number of samples meaning every possible card */
+	public static final int EXACT = 0;
+
+	/** One random card per placement at every ply. Default of search */
+	public static final SamplingPolicy SINGLE = new SamplingPolicy(new int[]{1}, 0);
+
+	private final int[] samples;
+	private final int exactKinds;
+
+	private SamplingPolicy(int[] samples, int exactKinds){
+		this.samples = samples;
+		this.exactKinds = exactKinds;
+	}
+
+	/** Creates policy with given number of samples per ply
+	 * @param samplesPerPly number of cards drawn at ply 0 (the root's moves), 1, ..., or {@link #EXACT}. Last
+	 * value applies to deeper plies
+	 * @return policy
+	 */
+	public static SamplingPolicy of(int... samplesPerPly){
+		if (samplesPerPly.length==0) throw new IllegalArgumentException("No samples given");
+		for (int k: samplesPerPly){
+			if (k<0) throw new IllegalArgumentException("Bad number of samples: " + k);
+		}
+		return new SamplingPolicy(samplesPerPly.clone(), 0);
+	}
+
+	/** Creates policy enumerating every card at every ply
+	 * @return policy
+	 */
+	public static SamplingPolicy exact(){
+		return of(EXACT);
+	}
+
+	/** Creates copy of policy that also enumerates exactly when card stack has at most given number of kinds of card
+	 * @param kinds number of kinds of card (1, 2, 3 and bonus)
+	 * @return policy
+	 */
+	public SamplingPolicy withExactKinds(int kinds){
+		return new SamplingPolicy(samples, kinds);
+	}
+
+	/** Gets number of cards to draw
+	 * @param ply number of moves from root of search
+	 * @param stack card stack cards are drawn from
+	 * @return number of cards drawn, or {@link #EXACT}
+	 */
+	int samples(int ply, Deck stack){
+		int k = samples[Math.min(ply, samples.length-1)];
+		if (k==EXACT) return EXACT;
+		//a single draw from a stack of one kind is exact already
+		int kinds = stack.kinds();
+		if (kinds<=exactKinds || (k>1 && kinds<=k)) return EXACT;
+		return k;
+	}
+
+	/** Indicates whether every ply is sampled the same way
+	 * @return true if policy doesn't depend on ply
+	 */
+	boolean isUniform(){
+		for (int k: samples){
+			if (k!=samples[0]) return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean equals(Object o){
+		if (!(o instanceof SamplingPolicy)) return false;
+		SamplingPolicy p = (SamplingPolicy)o;
+		return Arrays.equals(p.samples, samples) && p.exactKinds==exactKinds;
+	}
+
+	@Override
+	public int hashCode(){
+		return Arrays.hashCode(samples)*31 + exactKinds;
+	}
+
+	@Override
+	public String toString(){
+		return "samples=" + Arrays.toString(samples) + (exactKinds>0? ", exact up to " + exactKinds + " kinds" : "");
+	}
+
+}
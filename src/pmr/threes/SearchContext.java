@@ -0,0 +1,174 @@
+/* Copyright (c) 2014 Peter Rimshnick
+ * See the file license.txt for copying permission.
+ */
+package pmr.threes;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CancellationException;
+
+/** State shared by all tasks of one search: the evaluator bound to the root, the seed, the deadline,
+ * and what the search learns about the root's moves.
+ * <p>
+ * Random choices made while expanding a node come from a stream derived from the seed of the search and
+ * the node itself, not from a shared generator. So the tree searched depends only on the seed and the
+ * root, whichever thread expands a node, in whatever order.
+ * @author Peter Rimshnick
+ *
+ */
+final class SearchContext {
+
+	/** Deadline value meaning search runs to completion */
+	static final long NO_DEADLINE = Long.MAX_VALUE;
+
+	final Evaluator eval;
+	final State root;
+	/** Depth of search from root */
+	final int depth;
+	final long seed;
+	/** Tag of {@link TranspositionTable} entries of this search, from root tag of evaluator and seed */
+	final long tableTag;
+	/** Whether moves shown not to be best are pruned */
+	final boolean pruning;
+	/** Probability below which states are evaluated as leaves: the minimum probability relative to the
+	 * root, times the probability of the root, so the root itself is never cut */
+	final double minProbability;
+	final SamplingPolicy sampling;
+	final SearchStats stats;
+	private final long deadline;
+	private final int[] rootOrder;
+	private volatile boolean cancelled;
+	private volatile List<Choice> rootChoices;
+
+	/** Constructs context of search
+	 * @param eval evaluator bound to root of search
+	 * @param root root of search
+	 * @param depth depth of search from root
+	 * @param seed seed of random streams of search
+	 * @param pruning whether moves shown not to be best are pruned
+	 * @param minProbability probability relative to root below which states are evaluated as leaves
+	 * @param sampling how next hole cards are chosen at each ply
+	 * @param stats collects counters of search
+	 * @param deadline {@link System#nanoTime()} after which search is cancelled, or {@link #NO_DEADLINE}
+	 * @param rootOrder move codes (see {@link TranspositionTable#moveCode(Move)}) in order root moves should be
+	 * searched, or null to search all moves in default order
+	 */
+	SearchContext(Evaluator eval, State root, int depth, long seed, boolean pruning, double minProbability, SamplingPolicy sampling,
+			SearchStats stats, long deadline, int[] rootOrder){
+		this.eval = eval;
+		this.root = root;
+		this.depth = depth;
+		this.seed = seed;
+		//values depend on where the tree is cut off and how it is sampled too, and if sampling depends
+		//on ply, the same remaining depth means something else in searches of other depths
+		this.minProbability = minProbability*root.getProbability();
+		long tag = mix(mix(eval.getRootTag() + mix(seed)) + Double.doubleToLongBits(this.minProbability));
+		this.tableTag = mix(tag + sampling.hashCode() + (sampling.isUniform()? 0 : mix(depth)));
+		this.pruning = pruning;
+		this.sampling = sampling;
+		this.stats = stats;
+		this.deadline = deadline;
+		this.rootOrder = rootOrder;
+	}
+
+	/** Throws if search has been cancelled or has run past its deadline
+	 * @throws CancellationException if search should stop
+	 */
+	void checkCancelled(){
+		if (cancelled) throw new CancellationException();
+		if (deadline!=NO_DEADLINE && System.nanoTime()-deadline>0){
+			cancelled = true;
+			throw new CancellationException();
+		}
+	}
+
+	/** Cancels search. Tasks stop at their next check
+	 */
+	void cancel(){
+		cancelled = true;
+	}
+
+	/** Indicates whether search was cancelled
+	 * @return true if cancelled
+	 */
+	boolean isCancelled(){
+		return cancelled;
+	}
+
+	/** Gets moves to be searched from given state
+	 * @param s state
+	 * @return moves in order to be searched
+	 */
+	Move[] moves(State s){
+		if (s!=root || rootOrder==null) return new Move[]{new Left(s), new Right(s), new Up(s), new Down(s)};
+		Move[] moves = new Move[rootOrder.length];
+		for (int i = 0; i<moves.length; i++){
+			moves[i] = TranspositionTable.moveFor(rootOrder[i], s);
+		}
+		return moves;
+	}
+
+	/** Gets number of hole cards drawn for each placement of the current one when expanding given state
+	 * @param s state
+	 * @param remaining remaining depth of search at state
+	 * @return number of cards, or {@link SamplingPolicy#EXACT}
+	 */
+	int samples(State s, int remaining){
+		return sampling.samples(depth-remaining, s.getCardStack());
+	}
+
+	/** Gets random stream for expanding given move from given state
+	 * @param s state
+	 * @param m move
+	 * @return new random stream
+	 */
+	SplittableRandom random(State s, Move m){
+		return new SplittableRandom(streamSeed(seed, s, TranspositionTable.moveCode(m)));
+	}
+
+	/** Derives seed of random stream of a node from seed of search and the node's board, hole card
+	 * and card stack
+	 * @param seed seed of search
+	 * @param s state of node
+	 * @param salt distinguishes streams of same node, e.g. move code
+	 * @return seed of stream
+	 */
+	static long streamSeed(long seed, State s, int salt){
+		long h = mix(seed + s.getBoard().getPackedBoard());
+		h = mix(h + TranspositionTable.stateCode(s));
+		return mix(h + salt);
+	}
+
+	/** SplitMix64 finalizer
+	 * @param z
+	 * @return mixed bits
+	 */
+	private static long mix(long z){
+		z += 0x9E3779B97F4A7C15L;
+		z = (z ^ (z>>>30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z>>>27)) * 0x94D049BB133111EBL;
+		return z ^ (z>>>31);
+	}
+
+	/** Records values found for root moves
+	 * @param choices root choices, sorted by increasing value
+	 */
+	void setRootChoices(List<Choice> choices){
+		rootChoices = choices;
+	}
+
+	/** Gets order in which root moves should be searched by a deeper search, best first. Moves
+	 * found to be illegal are left out.
+	 * @return move codes, or null if root choices were not recorded
+	 */
+	int[] getRootRanking(){
+		List<Choice> choices = rootChoices;
+		if (choices==null) return null;
+		int[] ranking = new int[choices.size()];
+		for (int i = 0; i<ranking.length; i++){
+			ranking[i] = TranspositionTable.moveCode(choices.get(choices.size()-1-i).getMove());
+		}
+		return ranking;
+	}
+
+}
@@ -0,0 +1,167 @@
+/* Copyright (c) 2014 Peter Rimshnick
+ * See the file license.txt for copying permission.
+ */
+package pmr.threes;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/** Totals of {@link SearchStats} over all searches of all engines in this JVM, published through JMX
+ * under {@link #OBJECT_NAME}, so depth and thread settings can be tuned from a running deployment
+ * with e.g. JConsole.
+ * @author Peter Rimshnick
+ *
+ */
+public final class SearchMetrics implements SearchMetricsMXBean {
+
+	/** Name the metrics are registered under in the platform MBean server */
+	public static final String OBJECT_NAME = "pmr.threes:type=SearchMetrics";
+
+	private static final SearchMetrics INSTANCE = new SearchMetrics();
+
+	static {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+		} catch (JMException | SecurityException e) {
+			//totals are still kept, just not published
+		}
+	}
+
+	private final LongAdder searches = new LongAdder();
+	private final LongAdder nodes = new LongAdder();
+	private final LongAdder leafEvaluations = new LongAdder();
+	private final LongAdder prunedNodes = new LongAdder();
+	private final LongAdder cutNodes = new LongAdder();
+	private final LongAdder mergedNodes = new LongAdder();
+	private final LongAdder tableProbes = new LongAdder();
+	private final LongAdder tableHits = new LongAdder();
+	private final LongAdder bookHits = new LongAdder();
+	private final LongAdder queuedTasks = new LongAdder();
+	private final LongAdder queueNanos = new LongAdder();
+	private final LongAdder searchNanos = new LongAdder();
+	private final LongAdder moveGenerationNanos = new LongAdder();
+	private final LongAdder evaluationNanos = new LongAdder();
+
+	private SearchMetrics(){}
+
+	/** Gets metrics of this JVM
+	 * @return metrics
+	 */
+	public static SearchMetrics getInstance(){
+		return INSTANCE;
+	}
+
+	/** Adds statistics of finished search to totals
+	 * @param stats statistics of search
+	 */
+	void record(SearchStats stats){
+		searches.increment();
+		nodes.add(stats.getNodes());
+		leafEvaluations.add(stats.getLeafEvaluations());
+		prunedNodes.add(stats.getPrunedNodes());
+		cutNodes.add(stats.getCutNodes());
+		mergedNodes.add(stats.getMergedNodes());
+		tableProbes.add(stats.getTableProbes());
+		tableHits.add(stats.getTableHits());
+		bookHits.add(stats.getBookHits());
+		queuedTasks.add(stats.getQueuedTasks());
+		queueNanos.add(stats.getQueueNanos());
+		searchNanos.add(stats.getElapsedNanos());
+		moveGenerationNanos.add(stats.getMoveGenerationNanos());
+		evaluationNanos.add(stats.getEvaluationNanos());
+	}
+
+	@Override
+	public long getSearches(){
+		return searches.sum();
+	}
+
+	@Override
+	public long getNodes(){
+		return nodes.sum();
+	}
+
+	@Override
+	public long getLeafEvaluations(){
+		return leafEvaluations.sum();
+	}
+
+	@Override
+	public long getPrunedNodes(){
+		return prunedNodes.sum();
+	}
+
+	@Override
+	public long getCutNodes(){
+		return cutNodes.sum();
+	}
+
+	@Override
+	public long getMergedNodes(){
+		return mergedNodes.sum();
+	}
+
+	@Override
+	public long getTableProbes(){
+		return tableProbes.sum();
+	}
+
+	@Override
+	public long getTableHits(){
+		return tableHits.sum();
+	}
+
+	@Override
+	public long getBookHits(){
+		return bookHits.sum();
+	}
+
+	@Override
+	public long getQueuedTasks(){
+		return queuedTasks.sum();
+	}
+
+	@Override
+	public long getQueueMillis(){
+		return queueNanos.sum()/1000000;
+	}
+
+	@Override
+	public long getSearchMillis(){
+		return searchNanos.sum()/1000000;
+	}
+
+	@Override
+	public long getMoveGenerationMillis(){
+		return moveGenerationNanos.sum()/1000000;
+	}
+
+	@Override
+	public long getEvaluationMillis(){
+		return evaluationNanos.sum()/1000000;
+	}
+
+	@Override
+	public double getNodesPerSecond(){
+		long nanos = searchNanos.sum();
+		return nanos>0? nodes.sum()*1e9/nanos : 0;
+	}
+
+	@Override
+	public double getAverageSearchMillis(){
+		long n = searches.sum();
+		return n>0? searchNanos.sum()/1e6/n : 0;
+	}
+
+	@Override
+	public void reset(){
+		for (LongAdder a: new LongAdder[]{searches, nodes, leafEvaluations, prunedNodes, cutNodes, mergedNodes,
+				tableProbes, tableHits, bookHits, queuedTasks, queueNanos, searchNanos, moveGenerationNanos, evaluationNanos}){
+			a.reset();
+		}
+	}
+
+}
@@ -0,0 +1,65 @@
+/* Copyright (c) 2014 Peter Rimshnick
+ * See the file license.txt for copying permission.
+ */
+package pmr.threes;
+
+/** Management interface of {@link SearchMetrics}: totals of {@link SearchStats} over all searches
+ * since start or last reset
+ * @author Peter Rimshnick
+ *
+ */
+public interface SearchMetricsMXBean {
+
+	/** @return number of searches finished */
+	public long getSearches();
+
+	/** @return states searched */
+	public long getNodes();
+
+	/** @return states evaluated by the evaluator */
+	public long getLeafEvaluations();
+
+	/** @return chance outcomes left unsearched by pruning */
+	public long getPrunedNodes();
+
+	/** @return states evaluated as leaves because their probability was below the minimum */
+	public long getCutNodes();
+
+	/** @return outcomes removed by merging identical outcomes of a move */
+	public long getMergedNodes();
+
+	/** @return lookups in transposition table */
+	public long getTableProbes();
+
+	/** @return lookups in transposition table that found a value */
+	public long getTableHits();
+
+	/** @return moves found in opening book rather than by search */
+	public long getBookHits();
+
+	/** @return tasks searches were split into */
+	public long getQueuedTasks();
+
+	/** @return milliseconds tasks waited in pool queues, summed over tasks */
+	public long getQueueMillis();
+
+	/** @return milliseconds of wall clock time of searches, summed over searches */
+	public long getSearchMillis();
+
+	/** @return milliseconds spent generating outcomes of moves by profiled searches */
+	public long getMoveGenerationMillis();
+
+	/** @return milliseconds spent evaluating leaves by profiled searches */
+	public long getEvaluationMillis();
+
+	/** @return states searched per second of search time */
+	public double getNodesPerSecond();
+
+	/** @return average milliseconds per search */
+	public double getAverageSearchMillis();
+
+	/** Sets all totals to 0
+	 */
+	public void reset();
+
+}
@@ -0,0 +1,298 @@
+/* Copyright (c) 2014 Peter Rimshnick
+ * See the file license.txt for copying permission.
+ */
+package pmr.threes;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** Counters collected by one search. Updated concurrently by all tasks of the search, and returned
+ * with its {@link Choice}. Totals over all searches are published by {@link SearchMetrics}.
+ * <p>
+ * Nodes are counted per ply from the root: every state searched at that ply, whether it is expanded,
+ * found in the {@link TranspositionTable} or evaluated as a leaf. Time spent generating outcomes of
+ * moves and evaluating leaves is only measured when profiling, since timing every node slows the search.
+ * @author Peter Rimshnick
+ *
+ */
+public final class SearchStats {
+
+	/** Plies counted separately; deeper plies are counted with the last one */
+	static final int MAX_PLIES = ThreesGame.MAX_ITERATIVE_DEPTH+1;
+
+	private final boolean profiling;
+	private final long startTime = System.nanoTime();
+	private volatile long elapsed = -1;
+	private final LongAdder[] nodes = new LongAdder[MAX_PLIES];
+	private final LongAdder leafEvaluations = new LongAdder();
+	private final LongAdder prunedNodes = new LongAdder();
+	private final LongAdder cutNodes = new LongAdder();
+	private final LongAdder mergedNodes = new LongAdder();
+	private final LongAdder tableProbes = new LongAdder();
+	private final LongAdder tableHits = new LongAdder();
+	private final LongAdder bookHits = new LongAdder();
+	private final LongAdder queuedTasks = new LongAdder();
+	private final LongAdder queueNanos = new LongAdder();
+	private final LongAdder moveGenerationNanos = new LongAdder();
+	private final LongAdder evaluationNanos = new LongAdder();
+
+	/** Constructs statistics of search starting now, without profiling
+	 */
+	SearchStats(){
+		this(false);
+	}
+
+	/** Constructs statistics of search starting now
+	 * @param profiling whether move generation and evaluation are timed
+	 */
+	SearchStats(boolean profiling){
+		this.profiling = profiling;
+		for (int i = 0; i<nodes.length; i++){
+			nodes[i] = new LongAdder();
+		}
+	}
+
+	/** Indicates whether move generation and evaluation are timed
+	 * @return true if profiling
+	 */
+	public boolean isProfiling(){
+		return profiling;
+	}
+
+	/** Marks search as finished, fixing its elapsed time. Only the first call counts
+	 */
+	void finish(){
+		if (elapsed<0) elapsed = System.nanoTime() - startTime;
+	}
+
+	/** Gets wall clock time of search
+	 * @return nanoseconds from start to finish of search, or until now if not finished
+	 */
+	public long getElapsedNanos(){
+		long e = elapsed;
+		return e<0? System.nanoTime() - startTime : e;
+	}
+
+	/** Records states searched at given ply
+	 * @param ply distance from root
+	 * @param count number of states
+	 */
+	void addNodes(int ply, long count){
+		nodes[Math.min(ply, nodes.length-1)].add(count);
+	}
+
+	/** Gets number of states searched at given ply
+	 * @param ply distance from root
+	 * @return number of nodes at ply
+	 */
+	public long getNodes(int ply){
+		return ply<nodes.length? nodes[ply].sum() : 0;
+	}
+
+	/** Gets number of states searched at all plies
+	 * @return number of nodes
+	 */
+	public long getNodes(){
+		long sum = 0;
+		for (LongAdder n: nodes){
+			sum += n.sum();
+		}
+		return sum;
+	}
+
+	/** Gets deepest ply where states were searched
+	 * @return deepest ply, or -1 if none were
+	 */
+	public int getMaxPly(){
+		for (int ply = nodes.length-1; ply>=0; ply--){
+			if (nodes[ply].sum()>0) return ply;
+		}
+		return -1;
+	}
+
+	/** Gets effective branching factor: the branching factor of a uniform tree with as many nodes at
+	 * the deepest ply, relative to the root, as this search had
+	 * @return effective branching factor, or 0 if search did not get past the root
+	 */
+	public double getEffectiveBranchingFactor(){
+		int deepest = getMaxPly();
+		long root = getNodes(0);
+		if (deepest<1 || root==0) return 0;
+		return Math.pow((double)getNodes(deepest)/root, 1.0/deepest);
+	}
+
+	/** Gets number of states searched per second of wall clock time
+	 * @return nodes per second
+	 */
+	public double getNodesPerSecond(){
+		long e = getElapsedNanos();
+		return e>0? getNodes()*1e9/e : 0;
+	}
+
+	/** Records states evaluated by the evaluator
+	 * @param count number of states
+	 */
+	void addLeafEvaluations(long count){
+		leafEvaluations.add(count);
+	}
+
+	/** Gets number of states evaluated by the evaluator
+	 * @return number of leaf evaluations
+	 */
+	public long getLeafEvaluations(){
+		return leafEvaluations.sum();
+	}
+
+	/** Records chance outcomes left unsearched because their move was shown not to be best
+	 * @param count number of outcomes pruned
+	 */
+	void addPrunedNodes(long count){
+		prunedNodes.add(count);
+	}
+
+	/** Gets number of chance outcomes left unsearched by pruning
+	 * @return number of pruned nodes
+	 */
+	public long getPrunedNodes(){
+		return prunedNodes.sum();
+	}
+
+	/** Records state evaluated as a leaf because it is too unlikely to search further
+	 * @param ply distance of state from root
+	 */
+	void addCutNode(int ply){
+		cutNodes.increment();
+		addNodes(ply, 1);
+		leafEvaluations.increment();
+	}
+
+	/** Gets number of states evaluated as leaves because their probability was below the minimum
+	 * @return number of cut nodes
+	 */
+	public long getCutNodes(){
+		return cutNodes.sum();
+	}
+
+	/** Records outcomes of a move merged into identical ones
+	 * @param count number of outcomes removed by merging
+	 */
+	void addMergedNodes(long count){
+		if (count>0) mergedNodes.add(count);
+	}
+
+	/** Gets number of outcomes removed by merging identical outcomes of a move
+	 * @return number of merged nodes
+	 */
+	public long getMergedNodes(){
+		return mergedNodes.sum();
+	}
+
+	/** Records lookup in transposition table
+	 * @param hit whether value was found
+	 */
+	void addTableProbe(boolean hit){
+		tableProbes.increment();
+		if (hit) tableHits.increment();
+	}
+
+	/** Gets number of lookups in transposition table
+	 * @return number of probes
+	 */
+	public long getTableProbes(){
+		return tableProbes.sum();
+	}
+
+	/** Gets number of lookups in transposition table that found a value
+	 * @return number of hits
+	 */
+	public long getTableHits(){
+		return tableHits.sum();
+	}
+
+	/** Records move found in {@link OpeningBook} rather than by search
+	 */
+	void addBookHit(){
+		bookHits.increment();
+	}
+
+	/** Gets number of moves found in opening book
+	 * @return number of book hits
+	 */
+	public long getBookHits(){
+		return bookHits.sum();
+	}
+
+	/** Records task that waited in pool queue before running
+	 * @param nanos time between task being created and starting
+	 */
+	void addQueueWait(long nanos){
+		queuedTasks.increment();
+		queueNanos.add(nanos);
+	}
+
+	/** Gets number of tasks search was split into, including the root task
+	 * @return number of tasks
+	 */
+	public long getQueuedTasks(){
+		return queuedTasks.sum();
+	}
+
+	/** Gets time tasks of search waited in pool queue before running, summed over tasks
+	 * @return nanoseconds queued
+	 */
+	public long getQueueNanos(){
+		return queueNanos.sum();
+	}
+
+	/** Records time spent generating outcomes of moves
+	 * @param nanos time spent
+	 */
+	void addMoveGenerationNanos(long nanos){
+		moveGenerationNanos.add(nanos);
+	}
+
+	/** Gets time spent generating outcomes of moves, summed over threads
+	 * @return nanoseconds, or 0 if not profiling
+	 */
+	public long getMoveGenerationNanos(){
+		return moveGenerationNanos.sum();
+	}
+
+	/** Records time spent evaluating leaves
+	 * @param nanos time spent
+	 */
+	void addEvaluationNanos(long nanos){
+		evaluationNanos.add(nanos);
+	}
+
+	/** Gets time spent evaluating leaves, summed over threads
+	 * @return nanoseconds, or 0 if not profiling
+	 */
+	public long getEvaluationNanos(){
+		return evaluationNanos.sum();
+	}
+
+	@Override
+	public String toString(){
+		StringBuilder sb = new StringBuilder("nodes=[");
+		int deepest = getMaxPly();
+		for (int ply = 0; ply<=deepest; ply++){
+			if (ply>0) sb.append(',');
+			sb.append(getNodes(ply));
+		}
+		sb.append("], leaves=").append(getLeafEvaluations())
+			.append(", ebf=").append(String.format("%.2f", getEffectiveBranchingFactor()))
+			.append(", nodes/s=").append(Math.round(getNodesPerSecond()))
+			.append(", elapsed=").append(getElapsedNanos()/1000).append("us")
+			.append(", tasks=").append(getQueuedTasks())
+			.append(", queued=").append(getQueueNanos()/1000).append("us")
+			.append(", table=").append(getTableHits()).append('/').append(getTableProbes())
+			.append(", book=").append(getBookHits())
+			.append(", pruned=").append(getPrunedNodes())
+			.append(", cut=").append(getCutNodes())
+			.append(", merged=").append(getMergedNodes());
+		if (profiling) sb.append(", movegen=").append(getMoveGenerationNanos()/1000).append("us")
+			.append(", eval=").append(getEvaluationNanos()/1000).append("us");
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,394 @@
+/* Copyright (c) 2014 Peter Rimshnick
+ * See the file license.txt for copying permission.
+ */
+package pmr.threes;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Plays many games against the simulated random elements of the game, without console output, and
+ * collects statistics on them. Games run concurrently, each with its own seed, and share one
+ * {@link Engine} (and so its search pool and cache). A game's moves and draws depend only on its
+ * seed and the engine's seed, not on how many games run at once.
+ * @author Peter Rimshnick
+ *
+ */
+public class SelfPlay {
+
+	/** Number of cards on board at start of game */
+	public static final int START_CARDS = 9;
+
+	private final Engine game;
+	private final int threads;
+	private volatile GameLogWriter log;
+
+	/** Result of one game
+	 * @author Peter Rimshnick
+	 *
+	 */
+	public static class GameResult {
+		/** Seed game was played with */
+		public final long seed;
+		/** Final state of game */
+		public final State finalState;
+		/** Score of final board */
+		public final double score;
+		/** Value of largest card on final board */
+		public final int maxTile;
+		/** Number of moves made */
+		public final int moves;
+		/** Time taken by each move decision, in nanoseconds */
+		public final long[] decisionNanos;
+
+		GameResult(long seed, State finalState, int moves, long[] decisionNanos){
+			this.seed = seed;
+			this.finalState = finalState;
+			this.score = ThreesGame.getBoardScore(finalState.getBoard());
+			this.maxTile = PackedBoard.valueOf(PackedBoard.maxRank(finalState.getBoard().getPackedBoard()));
+			this.moves = moves;
+			this.decisionNanos = decisionNanos;
+		}
+	}
+
+	/** Aggregate statistics over a set of games
+	 * @author Peter Rimshnick
+	 *
+	 */
+	public static class Summary {
+		private static final double[] PERCENTILES = {.1, .25, .5, .75, .9, .99};
+
+		/** Results of individual games, in order of seed */
+		public final List<GameResult> games;
+		/** Wall clock time taken by all games, in nanoseconds */
+		public final long elapsedNanos;
+		/** CPU time used by process while games ran, in nanoseconds, or -1 if not known */
+		public final long cpuNanos;
+		private final double[] scores;
+		private final double[] lengths;
+		private final double[] latencies;
+
+		Summary(List<GameResult> games, long elapsedNanos, long cpuNanos){
+			this.games = games;
+			this.elapsedNanos = elapsedNanos;
+			this.cpuNanos = cpuNanos;
+			scores = new double[games.size()];
+			lengths = new double[games.size()];
+			int moves = 0;
+			for (int i = 0; i<games.size(); i++){
+				scores[i] = games.get(i).score;
+				lengths[i] = games.get(i).moves;
+				moves += games.get(i).decisionNanos.length;
+			}
+			latencies = new double[moves];
+			int k = 0;
+			for (GameResult g: games){
+				for (long nanos: g.decisionNanos){
+					latencies[k++] = nanos/1e6;
+				}
+			}
+			Arrays.sort(scores);
+			Arrays.sort(lengths);
+			Arrays.sort(latencies);
+		}
+
+		/** Gets mean score of games
+		 * @return mean score
+		 */
+		public double getMeanScore(){
+			return mean(scores);
+		}
+
+		/** Gets given percentile of scores
+		 * @param p percentile, between 0 and 1
+		 * @return score at percentile
+		 */
+		public double getScorePercentile(double p){
+			return percentile(scores, p);
+		}
+
+		/** Gets largest card reached in any game
+		 * @return value of largest card
+		 */
+		public int getMaxTile(){
+			int max = 0;
+			for (GameResult g: games){
+				max = Math.max(max, g.maxTile);
+			}
+			return max;
+		}
+
+		/** Gets given percentile of move decision latency
+		 * @param p percentile, between 0 and 1
+		 * @return latency in milliseconds
+		 */
+		public double getLatencyPercentile(double p){
+			return percentile(latencies, p);
+		}
+
+		/** Gets number of games finished per hour
+		 * @return games per hour
+		 */
+		public double getGamesPerHour(){
+			return games.size()/(elapsedNanos/3.6e12);
+		}
+
+		/** Gets total score of games per second of CPU time used, for comparing engines of different cost
+		 * @return score per CPU second, or NaN if CPU time is not known
+		 */
+		public double getScorePerCpuSecond(){
+			if (cpuNanos<=0) return Double.NaN;
+			double total = 0;
+			for (double score: scores){
+				total += score;
+			}
+			return total/(cpuNanos/1e9);
+		}
+
+		/** Writes summary as JSON
+		 * @param out destination
+		 * @param config description of engine configuration, written as is
+		 * @throws IOException
+		 */
+		public void writeJson(Writer out, String config) throws IOException {
+			StringBuilder s = new StringBuilder();
+			s.append("{\n");
+			s.append("  \"config\": \"").append(config.replace("\\", "\\\\").replace("\"", "\\\"")).append("\",\n");
+			s.append("  \"games\": ").append(games.size()).append(",\n");
+			s.append("  \"elapsedSeconds\": ").append(format(elapsedNanos/1e9)).append(",\n");
+			s.append("  \"gamesPerHour\": ").append(format(getGamesPerHour())).append(",\n");
+			s.append("  \"cpuSeconds\": ").append(format(cpuNanos<0? Double.NaN : cpuNanos/1e9)).append(",\n");
+			s.append("  \"scorePerCpuSecond\": ").append(format(getScorePerCpuSecond())).append(",\n");
+			s.append("  \"maxTile\": ").append(getMaxTile()).append(",\n");
+			appendDistribution(s, "score", scores);
+			s.append(",\n");
+			appendDistribution(s, "moves", lengths);
+			s.append(",\n");
+			appendDistribution(s, "decisionMillis", latencies);
+			s.append(",\n");
+			int[] tileCounts = new int[PackedBoard.MAX_RANK+1];
+			for (GameResult g: games){
+				tileCounts[PackedBoard.rankOf(g.maxTile)]++;
+			}
+			s.append("  \"maxTileCounts\": {");
+			String sep = "";
+			for (int rank = 0; rank<tileCounts.length; rank++){
+				if (tileCounts[rank]==0) continue;
+				s.append(sep).append("\"").append(PackedBoard.valueOf(rank)).append("\": ").append(tileCounts[rank]);
+				sep = ", ";
+			}
+			s.append("}\n}\n");
+			out.write(s.toString());
+		}
+
+		private static void appendDistribution(StringBuilder s, String name, double[] sorted){
+			s.append("  \"").append(name).append("\": {\"mean\": ").append(format(mean(sorted)));
+			s.append(", \"max\": ").append(format(sorted.length==0? Double.NaN : sorted[sorted.length-1]));
+			for (double p: PERCENTILES){
+				s.append(", \"p").append(Math.round(p*100)).append("\": ").append(format(percentile(sorted, p)));
+			}
+			s.append("}");
+		}
+
+		static String format(double d){
+			return Double.isNaN(d) || Double.isInfinite(d)? "null" : String.format(Locale.ROOT, "%.4f", d);
+		}
+
+		static double mean(double[] values){
+			double sum = 0;
+			for (double v: values){
+				sum += v;
+			}
+			return values.length==0? Double.NaN : sum/values.length;
+		}
+
+		/** Nearest rank percentile
+		 * @param sorted sorted values
+		 * @param p percentile, between 0 and 1
+		 * @return value at percentile
+		 */
+		static double percentile(double[] sorted, double p){
+			if (sorted.length==0) return Double.NaN;
+			int rank = (int)Math.ceil(p*sorted.length);
+			return sorted[Math.max(0, Math.min(sorted.length-1, rank-1))];
+		}
+
+		@Override
+		public String toString(){
+			return String.format(Locale.ROOT, "%d games, mean score %.1f, median %.1f, max tile %d, median move %.2f ms, p99 move %.2f ms, %.1f games/hour",
+					games.size(), getMeanScore(), getScorePercentile(.5), getMaxTile(), getLatencyPercentile(.5), getLatencyPercentile(.99), getGamesPerHour());
+		}
+	}
+
+	/** Constructs runner
+	 * @param game engine used to pick moves
+	 * @param threads number of games played at once
+	 */
+	public SelfPlay(Engine game, int threads){
+		this.game = game;
+		this.threads = threads;
+	}
+
+	/** Sets log every step of every game is written to, with the game's seed as its id
+	 * @param log game log, or null for none
+	 */
+	public void setLog(GameLogWriter log){
+		this.log = log;
+	}
+
+	/** Gets log steps of games are written to
+	 * @return game log, or null if none
+	 */
+	public GameLogWriter getLog(){
+		return log;
+	}
+
+	/** Creates random start state: {@link #START_CARDS} cards from a fresh card stack placed at
+	 * random cells, plus a hole card from the same stack
+	 * @param random source of randomness
+	 * @return start state
+	 */
+	public static State randomStart(Random random){
+		Deck stack = Deck.of(Deck.MAX_COUNT, Deck.MAX_COUNT, Deck.MAX_COUNT, 0);
+		int[] cells = new int[PackedBoard.SIZE*PackedBoard.SIZE];
+		for (int i = 0; i<cells.length; i++){
+			cells[i] = i;
+		}
+		long board = 0;
+		for (int i = 0; i<START_CARDS; i++){
+			//partial Fisher-Yates shuffle of cells
+			int j = i + random.nextInt(cells.length-i);
+			int cell = cells[j];
+			cells[j] = cells[i];
+			int kind = stack.kindAt(random.nextInt(stack.size()));
+			board = PackedBoard.set(board, cell/PackedBoard.SIZE, cell%PackedBoard.SIZE, kind+1);
+			stack = stack.remove(kind);
+		}
+		int kind = stack.kindAt(random.nextInt(stack.size()));
+		return new State(new Board(board), stack.remove(kind), stack.card(kind), 1.0);
+	}
+
+	/** Plays one game from a random start
+	 * @param seed seed of game
+	 * @return result of game
+	 */
+	public GameResult playGame(long seed){
+		Random random = new Random(seed);
+		State state = randomStart(random);
+		long[] decisionNanos = new long[256];
+		int moves = 0;
+		GameLogWriter log = this.log;
+		while (true){
+			long start = System.nanoTime();
+			Choice choice = game.findBestMove(state);
+			long nanos = System.nanoTime() - start;
+			if (log!=null) log.write(seed, state, choice, nanos);
+			if (choice.isEmptyChoice()) break;
+			if (moves==decisionNanos.length) decisionNanos = Arrays.copyOf(decisionNanos, moves*2);
+			decisionNanos[moves++] = nanos;
+			State[] outcomes = choice.getMove().findEndStatesForSim(new SplittableRandom(random.nextLong()));
+			state = new State(ThreesGame.pickState(outcomes, random));
+		}
+		return new GameResult(seed, state, moves, Arrays.copyOf(decisionNanos, moves));
+	}
+
+	/** Plays given number of games concurrently. Game i is played with seed baseSeed+i
+	 * @param games number of games
+	 * @param baseSeed seed of first game
+	 * @return summary of games
+	 */
+	public Summary run(int games, final long baseSeed){
+		ExecutorService drivers = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+		long cpuStart = processCpuNanos();
+		try {
+			List<Future<GameResult>> futures = new ArrayList<Future<GameResult>>(games);
+			for (int i = 0; i<games; i++){
+				final long seed = baseSeed + i;
+				futures.add(drivers.submit(() -> playGame(seed)));
+			}
+			List<GameResult> results = new ArrayList<GameResult>(games);
+			for (Future<GameResult> future: futures){
+				results.add(future.get());
+			}
+			long cpuEnd = processCpuNanos();
+			return new Summary(results, System.nanoTime()-start, cpuStart<0 || cpuEnd<0? -1 : cpuEnd-cpuStart);
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException(e);
+		} finally {
+			drivers.shutdownNow();
+		}
+	}
+
+	/** Gets CPU time used by process so far
+	 * @return CPU time in nanoseconds, or -1 if not supported by JVM
+	 */
+	private static long processCpuNanos(){
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean){
+			return ((com.sun.management.OperatingSystemMXBean)os).getProcessCpuTime();
+		}
+		return -1;
+	}
+
+	/** Runs self play from command line.
+	 * Arguments: games [depth [output file [seed [boardWeight freeCellWeight matchableWeight [log file]]]]]. A depth of
+	 * the form mcts:N plays with {@link MctsEngine} running N iterations per move instead. If a log file is
+	 * given, every step of every game is written to it (see {@link GameLogWriter})
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		int games = args.length>0? Integer.parseInt(args[0]) : 100;
+		String engine = args.length>1? args[1] : "3";
+		Path output = Paths.get(args.length>2? args[2] : "selfplay.json");
+		long seed = args.length>3? Long.parseLong(args[3]) : 0;
+		double[] weights = {.39, .47, .14};
+		if (args.length>6){
+			for (int i = 0; i<3; i++){
+				weights[i] = Double.parseDouble(args[4+i]);
+			}
+		}
+		int threads = Runtime.getRuntime().availableProcessors();
+		Summary summary;
+		Evaluator evaluator = new DefaultEvaluator(weights[0], weights[1], weights[2]);
+		Engine game;
+		if (engine.startsWith("mcts:")){
+			//games already use every core, so each search grows one tree
+			MctsEngine mcts = new MctsEngine(evaluator, 1, null);
+			mcts.setIterations(Integer.parseInt(engine.substring(5)));
+			game = mcts;
+		}
+		else game = new ThreesGame(Integer.parseInt(engine), evaluator, ThreesGame.DEFAULT_TABLE_BYTES, null);
+		GameLogWriter log = args.length>7? new GameLogWriter(Paths.get(args[7])) : null;
+		try {
+			SelfPlay selfPlay = new SelfPlay(game, threads);
+			selfPlay.setLog(log);
+			summary = selfPlay.run(games, seed);
+		} finally {
+			game.close();
+			if (log!=null) log.close();
+		}
+		String config = "engine=" + engine + " weights=" + Arrays.toString(weights) + " seed=" + seed + " threads=" + threads;
+		try (Writer out = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+			summary.writeJson(out, config);
+		}
+		System.out.println(summary);
+	}
+
+}
@@ -3,11 +3,9 @@
  */
 package pmr.threes;
 
-import java.util.Arrays;
-import java.util.Map;
-
 /** Represents state of game. This includes the current board, the hole card, the remaining stack
- * of possible hole cards, and the probability of this state
+ * of possible hole cards, and the probability of this state. States created by moves also carry the
+ * evaluation features of their board, derived from those of the previous state (see {@link DefaultEvaluator#features(long)})
  * @author Peter Rimshnick
  *
  */
@@ -15,8 +13,12 @@ public class State {
 	
 	private final Board board;
 	private final double probability;
-	private final Map<HoleCard, Integer> cardStack;
+	private final Deck cardStack;
 	private final HoleCard holeCard;
+	/** Board score, or NaN if not known */
+	private final double boardScore;
+	/** Packed features of board, or {@link DefaultEvaluator#NO_FEATURES} if not known */
+	private final int features;
 	
 	private static final double EPSILON = .00000001;
 		
@@ -26,7 +28,7 @@ public class State {
 	 * @param holeCard current hole card
 	 * @param probability probability of state
 	 */
-	public State(int[][] boardArray, Map<HoleCard, Integer> cardStack, HoleCard holeCard, double probability){
+	public State(int[][] boardArray, Deck cardStack, HoleCard holeCard, double probability){
 		this.board = new Board(boardArray);
 		if (cardStack.isEmpty()) {
 			this.cardStack = ThreesGame.generateCardStack(board);		
@@ -34,6 +36,8 @@ public class State {
 		else this.cardStack = cardStack;
 		this.holeCard = holeCard;
 		this.probability = probability;
+		this.boardScore = Double.NaN;
+		this.features = DefaultEvaluator.NO_FEATURES;
 	}
 	
 	/** Constructs state. Probability assumed to be 1.0. Generates random card stack.
@@ -41,10 +45,7 @@ public class State {
 	 * @param holeCard current hole card
 	 */
 	public State(int[][] boardArray, HoleCard holeCard){
-		this.board = new Board(boardArray);		
-		this.probability = 1.0;
-		this.cardStack = ThreesGame.generateCardStack(board);
-		this.holeCard = holeCard;
+		this(new Board(boardArray), holeCard);
 	}
 	
 	/** Constructs state
@@ -53,7 +54,19 @@ public class State {
 	 * @param holeCard current hole card
 	 * @param probability probability of state
 	 */
-	public State(Board board, Map<HoleCard, Integer> cardStack, HoleCard holeCard, double probability){
+	public State(Board board, Deck cardStack, HoleCard holeCard, double probability){
+		this(board, cardStack, holeCard, probability, Double.NaN, DefaultEvaluator.NO_FEATURES);
+	}
+
+	/** Constructs state with known features
+	 * @param board current board 
+	 * @param cardStack current card deck
+	 * @param holeCard current hole card
+	 * @param probability probability of state
+	 * @param boardScore board score, or NaN if not known
+	 * @param features packed features of board, or {@link DefaultEvaluator#NO_FEATURES}
+	 */
+	State(Board board, Deck cardStack, HoleCard holeCard, double probability, double boardScore, int features){
 		this.board = board;
 		if (cardStack.isEmpty()) {
 			this.cardStack = ThreesGame.generateCardStack(board);		
@@ -61,6 +74,18 @@ public class State {
 		else this.cardStack = cardStack;
 		this.holeCard = holeCard;
 		this.probability = probability;
+		this.boardScore = boardScore;
+		this.features = features;
+	}
+
+	/** Constructs state with same board, and features, as given state
+	 * @param s state whose board is used
+	 * @param cardStack current card deck
+	 * @param holeCard current hole card
+	 * @param probability probability of state
+	 */
+	State(State s, Deck cardStack, HoleCard holeCard, double probability){
+		this(s.board, cardStack, holeCard, probability, s.boardScore, s.features);
 	}
 	
 	/** Constructs state. Probability assumed to be 1.0. Generates random card stack.
@@ -72,6 +97,8 @@ public class State {
 		this.probability = 1.0;
 		this.cardStack = ThreesGame.generateCardStack(board);
 		this.holeCard = holeCard;
+		this.boardScore = Double.NaN;
+		this.features = DefaultEvaluator.NO_FEATURES;
 	}
 	
 	
@@ -83,6 +110,8 @@ public class State {
 		this.probability = 1.0;
 		this.cardStack = newRoot.getCardStack();
 		this.holeCard = newRoot.getHoleCard();
+		this.boardScore = newRoot.boardScore;
+		this.features = newRoot.features;
 	}
 	
 	/** Gets board
@@ -99,12 +128,26 @@ public class State {
 	/** Gets card stack
 	 * @return card stack of state
 	 */
-	Map<HoleCard, Integer> getCardStack() { return cardStack; };
+	Deck getCardStack() { return cardStack; };
 	
 	/** Gets hole card of state
 	 * @return hole card
 	 */
 	HoleCard getHoleCard() { return holeCard; }
+
+	/** Gets board score, computing it if state doesn't carry it
+	 * @return board score
+	 */
+	double getBoardScore() {
+		return features==DefaultEvaluator.NO_FEATURES? DefaultEvaluator.getBoardScore(board.getPackedBoard()) : boardScore;
+	}
+
+	/** Gets packed features of board, computing them if state doesn't carry them
+	 * @return packed features, see {@link DefaultEvaluator#features(long)}
+	 */
+	int getFeatures() {
+		return features==DefaultEvaluator.NO_FEATURES? DefaultEvaluator.features(board.getPackedBoard()) : features;
+	}
 	
 	@Override
 	public boolean equals(Object o){
@@ -115,7 +158,7 @@ public class State {
 	
 	@Override
 	public int hashCode(){
-		return Arrays.hashCode(board.getBoardArray());
+		return board.hashCode();
 	}
 	
 	@Override
@@ -0,0 +1,40 @@
+/* Copyright (c) 2014 Peter Rimshnick
+ * See the file license.txt for copying permission.
+ */
+package pmr.threes;
+
+/** Identifies a state by its board, hole card and card stack, leaving out its probability.
+ * States with equal keys have the same best move. Ordered by board, then hole card and card stack
+ * (see {@link TranspositionTable#stateCode(State)}), as in an {@link OpeningBook}.
+ * @author Peter Rimshnick
+ *
+ */
+final class StateKey implements Comparable<StateKey> {
+	final long board;
+	final int code;
+
+	StateKey(State state){
+		this(state.getBoard().getPackedBoard(), TranspositionTable.stateCode(state));
+	}
+
+	StateKey(long board, int code){
+		this.board = board;
+		this.code = code;
+	}
+
+	@Override
+	public int compareTo(StateKey k){
+		int c = Long.compare(board, k.board);
+		return c!=0? c : Integer.compare(code, k.code);
+	}
+
+	@Override
+	public boolean equals(Object o){
+		return (o instanceof StateKey) && ((StateKey)o).board==board && ((StateKey)o).code==code;
+	}
+
+	@Override
+	public int hashCode(){
+		return Long.hashCode(board)*31 + code;
+	}
+}
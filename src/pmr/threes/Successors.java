@@ -0,0 +1,195 @@
+/* Copyright (c) 2014 Peter Rimshnick
+ * See the file license.txt for copying permission.
+ */
+package pmr.threes;
+
+import java.util.SplittableRandom;
+
+/** Lazy outcomes of a left, right, up or down move. Rows are combined up front, which is cheap and
+ * tells whether the move is legal and how many outcomes it has. Each placement of the hole card
+ * (a rank it can take on and a modified row it enters) is then built only when its outcomes are asked
+ * for, and expanded into the possible next hole cards, either all of them or a number drawn at random.
+ * <p>
+ * Placements always differ in board, so outcomes can only coincide when cards drawn for the same
+ * placement do. Those are merged within the placement, which consumes random draws in the same
+ * order as {@link AbstractMove#updateHoleCardForSearch(java.util.List, SplittableRandom, int)} followed by
+ * {@link AbstractMove#mergeDuplicates(State[])}, and gives the same outcomes.
+ * @author Peter Rimshnick
+ *
+ */
+final class Successors implements Outcomes {
+
+	private final State startState;
+	private final int column;
+	private final boolean transposed;
+	private final SplittableRandom random;
+	private final int samples;
+	/** Board in oriented frame after combining, before insertion */
+	private long newBoard;
+	private int modifiedRows;
+	private int[] holeRanks;
+	/** Features along direction of move after combining, before insertion */
+	private int free, along;
+	private double score;
+	/** Probability of each placement */
+	private double placementProbability;
+	/** Next placement: index into hole ranks, and row */
+	private int rankIndex, row;
+	private int remaining;
+	private int merged;
+	/** Outcomes of current placement not returned yet */
+	private final State[] pending;
+	private int pendingNext, pendingSize;
+
+	/** Combines rows of start state
+	 * @param startState start state
+	 * @param table {@link MoveKernel#LEFT} or {@link MoveKernel#RIGHT}
+	 * @param column column where hole card enters
+	 * @param transposed whether move works on columns rather than rows
+	 * @param random source of randomness for drawn cards and new card stacks
+	 * @param samples number of cards drawn for each placement, or {@link SamplingPolicy#EXACT} for every possible card
+	 */
+	Successors(State startState, int[] table, int column, boolean transposed, SplittableRandom random, int samples){
+		this.startState = startState;
+		this.column = column;
+		this.transposed = transposed;
+		this.random = random;
+		this.samples = samples;
+		long startBoard = startState.getBoard().getPackedBoard();
+		if (transposed) startBoard = PackedBoard.transpose(startBoard);
+		int[] oldRows = new int[PackedBoard.SIZE];
+		for (int i = 0; i<PackedBoard.SIZE; i++){
+			oldRows[i] = PackedBoard.getRow(startBoard, i);
+			int entry = table[oldRows[i]];
+			if ((entry & MoveKernel.CHANGED)!=0) modifiedRows |= 1<<i;
+			newBoard = PackedBoard.setRow(newBoard, i, entry & MoveKernel.ROW_MASK);
+		}
+		int perPlacement = samples==SamplingPolicy.EXACT? startState.getCardStack().kinds() : samples;
+		this.pending = new State[Math.max(perPlacement, 1)];
+		//if modified rows is empty, there are no outcomes
+		if (modifiedRows==0) return;
+
+		int features = startState.getFeatures();
+		int alongShift = transposed? DefaultEvaluator.COLUMN_MATCHABLE_SHIFT : DefaultEvaluator.ROW_MATCHABLE_SHIFT;
+		free = features & DefaultEvaluator.FEATURE_MASK;
+		along = (features>>>alongShift) & DefaultEvaluator.FEATURE_MASK;
+		score = startState.getBoardScore();
+		for (int i = 0; i<PackedBoard.SIZE; i++){
+			if ((modifiedRows & (1<<i))==0) continue;
+			int newRow = PackedBoard.getRow(newBoard, i);
+			score += DefaultEvaluator.ROW_SCORE[newRow] - DefaultEvaluator.ROW_SCORE[oldRows[i]];
+			int delta = DefaultEvaluator.ROW_FEATURES[newRow] - DefaultEvaluator.ROW_FEATURES[oldRows[i]];
+			free += (byte)delta;
+			along += (delta - (byte)delta)>>8;
+		}
+		holeRanks = AbstractMove.getHoleRanks(startState.getHoleCard());
+		int placements = Integer.bitCount(modifiedRows)*holeRanks.length;
+		placementProbability = startState.getProbability()* (double)1/placements;
+		remaining = placements*perPlacement;
+	}
+
+	/** Indicates whether move changes the board
+	 * @return true if move has outcomes
+	 */
+	boolean isLegal(){
+		return modifiedRows!=0;
+	}
+
+	@Override
+	public State next(){
+		if (pendingNext==pendingSize){
+			State placement = nextPlacement();
+			if (placement==null) return null;
+			expand(placement);
+		}
+		remaining--;
+		State s = pending[pendingNext];
+		pending[pendingNext++] = null;
+		return s;
+	}
+
+	@Override
+	public int remaining(){
+		return remaining;
+	}
+
+	@Override
+	public double probability(){
+		return modifiedRows==0? 0 : startState.getProbability();
+	}
+
+	@Override
+	public int merged(){
+		return merged;
+	}
+
+	/** Builds next placement of hole card, with card stack of start state and no hole card yet
+	 * @return next placement, or null if there are none left
+	 */
+	State nextPlacement(){
+		if (modifiedRows==0) return null;
+		while (rankIndex<holeRanks.length && (modifiedRows & (1<<row))==0){
+			if (++row==PackedBoard.SIZE){
+				row = 0;
+				rankIndex++;
+			}
+		}
+		if (rankIndex==holeRanks.length) return null;
+		int i = row;
+		int rank = holeRanks[rankIndex];
+		if (++row==PackedBoard.SIZE){
+			row = 0;
+			rankIndex++;
+		}
+		long modBoard = PackedBoard.set(newBoard, i, column, rank);
+		int newRow = PackedBoard.getRow(newBoard, i);
+		int insertedRow = PackedBoard.getRow(modBoard, i);
+		double modScore = score + DefaultEvaluator.ROW_SCORE[insertedRow] - DefaultEvaluator.ROW_SCORE[newRow];
+		int modAlong = along + (DefaultEvaluator.ROW_FEATURES[insertedRow]>>8) - (DefaultEvaluator.ROW_FEATURES[newRow]>>8);
+		//every line across the move may have changed; they are the rows of the transpose
+		long across = PackedBoard.transpose(modBoard);
+		int modAcross = 0;
+		for (int k = 0; k<PackedBoard.SIZE; k++){
+			modAcross += DefaultEvaluator.ROW_FEATURES[PackedBoard.getRow(across, k)]>>8;
+		}
+		if (transposed) modBoard = across;
+		int rowMatchable = transposed? modAcross : modAlong;
+		int columnMatchable = transposed? modAlong : modAcross;
+		int modFeatures = (free-1) | rowMatchable<<DefaultEvaluator.ROW_MATCHABLE_SHIFT | columnMatchable<<DefaultEvaluator.COLUMN_MATCHABLE_SHIFT;
+		return new State(new Board(modBoard), startState.getCardStack(), null, placementProbability, modScore, modFeatures);
+	}
+
+	/** Fills pending outcomes with possible next hole cards of given placement
+	 * @param s placement of current hole card
+	 */
+	private void expand(State s){
+		Deck stack = s.getCardStack();
+		pendingNext = 0;
+		pendingSize = 0;
+		if (samples==SamplingPolicy.EXACT){
+			int cardCount = stack.size();
+			for (int kind = 0; kind<Deck.KINDS; kind++){
+				int count = stack.count(kind);
+				if (count==0) continue;
+				Deck newStack = AbstractMove.refill(stack.remove(kind), s.getBoard(), random);
+				pending[pendingSize++] = new State(s, newStack, stack.card(kind), (s.getProbability() * count)/cardCount);
+			}
+			return;
+		}
+		double probability = s.getProbability()/samples;
+		for (int k = 0; k<samples; k++){
+			HoleCard h = AbstractMove.getRandomCard(stack, random);
+			Deck newStack = AbstractMove.refill(stack.remove(h), s.getBoard(), random);
+			int j = 0;
+			while (j<pendingSize && (pending[j].getHoleCard()!=h || !pending[j].getCardStack().equals(newStack))) j++;
+			if (j<pendingSize){
+				State d = pending[j];
+				pending[j] = new State(d, newStack, h, d.getProbability()+probability);
+				merged++;
+				remaining--;
+			}
+			else pending[pendingSize++] = new State(s, newStack, h, probability);
+		}
+	}
+
+}
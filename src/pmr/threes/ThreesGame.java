@@ -3,54 +3,69 @@
  */
 package pmr.threes;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Random;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /** Represents instance of game. Handles evaluation, optimal move selection, and other
- * high level concepts in Threes 
+ * high level concepts in Threes. Searches run on a fork/join pool owned by the instance
+ * (unless one is supplied), so instances should be closed when no longer used.
  * @author Peter Rimshnick
  *
  */
-public class ThreesGame {
+public class ThreesGame implements Engine {
 
 	private final int depth;
-	final double boardWeight;
-	final double freeCellWeight;
-	final double matchableWeight;
-	private static final Random rand = new Random(0);
-	private static final double EPSILON = .0000001;
-	private static final int THREAD_DEPTH = 3;
-	private ExecutorService threadPool;
+	private final Evaluator evaluator;
+	/** Source of randomness for states and simulated draws made outside of search. Search never uses it */
+	static final Random rand = new Random(0);
+	/** Default seed of searches */
+	public static final long DEFAULT_SEED = 0;
+	private volatile long seed = DEFAULT_SEED;
+	private volatile boolean pruning;
+	private volatile double minProbability;
+	private volatile SamplingPolicy sampling = SamplingPolicy.SINGLE;
+	private volatile boolean profiling;
+	private volatile OpeningBook book;
+	/** Estimated number of nodes in subtree above which its children are searched in parallel */
+	private static final double SPLIT_THRESHOLD = 1<<14;
+	/** Deepest search tried by {@link #findBestMove(State, Duration)} */
+	public static final int MAX_ITERATIVE_DEPTH = 32;
+	/** Subtrees are searched sequentially while this many more tasks are queued than idle threads could steal */
+	private static final int MAX_SURPLUS_TASKS = 3;
+	/** Lower bound of a search that has none */
+	private static final double NO_BOUND = Double.NEGATIVE_INFINITY;
+	/** Default memory budget of {@link TranspositionTable} in bytes */
+	public static final long DEFAULT_TABLE_BYTES = 32L<<20;
+	private final ForkJoinPool pool;
+	private final boolean ownsPool;
+	private final TranspositionTable transpositionTable;
 
 	/** Construct instance with default parameters
 	 * 
 	 */
 	public ThreesGame(){
-		depth = 5;
-		boardWeight = .33;
-		freeCellWeight = .33;
-		matchableWeight = .33;
+		this(5);
 	}
 
 	/** Construct instance with given depth, default other parameters
 	 * @param depth max depth of tree to be searched
 	 */
 	public ThreesGame(int depth){
-		this.depth = depth;
-		boardWeight = .33;
-		freeCellWeight = .33;
-		matchableWeight = .33;
+		this(depth, .33, .33, .33);
 	}
 
 	/** Constructs instance with given parameters
@@ -60,146 +75,627 @@ public class ThreesGame {
 	 * @param matchableWeight weight given to having potential matches in evaluation critiera
 	 */
 	public ThreesGame(int depth, double boardWeight, double freeCellWeight, double matchableWeight){
+		this(depth, boardWeight, freeCellWeight, matchableWeight, DEFAULT_TABLE_BYTES);
+	}
+
+	/** Constructs instance with given parameters
+	 * @param depth max depth of tree to be searched
+	 * @param boardWeight weight of board score in evaluation criteria
+	 * @param freeCellWeight weight given to outstanding empty cells in evaluation criteria
+	 * @param matchableWeight weight given to having potential matches in evaluation critiera
+	 * @param tableBytes memory budget of transposition table in bytes, 0 to disable it
+	 */
+	public ThreesGame(int depth, double boardWeight, double freeCellWeight, double matchableWeight, long tableBytes){
+		this(depth, boardWeight, freeCellWeight, matchableWeight, tableBytes, null);
+	}
+
+	/** Constructs instance with given parameters, searching on given pool
+	 * @param depth max depth of tree to be searched
+	 * @param boardWeight weight of board score in evaluation criteria
+	 * @param freeCellWeight weight given to outstanding empty cells in evaluation criteria
+	 * @param matchableWeight weight given to having potential matches in evaluation critiera
+	 * @param tableBytes memory budget of transposition table in bytes, 0 to disable it
+	 * @param pool pool to run searches on, or null to create one owned by this instance. A supplied
+	 * pool is not shut down by {@link #close()}
+	 */
+	public ThreesGame(int depth, double boardWeight, double freeCellWeight, double matchableWeight, long tableBytes, ForkJoinPool pool){
+		this(depth, new DefaultEvaluator(boardWeight, freeCellWeight, matchableWeight), tableBytes, pool);
+	}
+
+	/** Constructs instance with given evaluator, searching on given pool
+	 * @param depth max depth of tree to be searched
+	 * @param evaluator evaluates leaf states of search
+	 * @param tableBytes memory budget of transposition table in bytes, 0 to disable it
+	 * @param pool pool to run searches on, or null to create one owned by this instance. A supplied
+	 * pool is not shut down by {@link #close()}
+	 */
+	public ThreesGame(int depth, Evaluator evaluator, long tableBytes, ForkJoinPool pool){
 		this.depth = depth;
-		this.boardWeight = boardWeight;
-		this.freeCellWeight = freeCellWeight;
-		this.matchableWeight = matchableWeight;
+		this.evaluator = evaluator;
+		this.transpositionTable = tableBytes>0? new TranspositionTable(tableBytes) : null;
+		this.ownsPool = pool==null;
+		this.pool = ownsPool? new ForkJoinPool() : pool;
 	}	
 
 	/** Finds best move given a state
 	 * @param start state
 	 * @return {@link Choice} object containing info on best move found
 	 */
+	@Override
 	public Choice findBestMove(State start){		
-		threadPool = Executors.newCachedThreadPool();
-		Choice bestMove = findBestMove(start, start, depth, THREAD_DEPTH); 
-		threadPool.shutdown();
-		return bestMove;		
+		Choice known = fromBook(start, depth);
+		if (known!=null) return known;
+		SearchContext ctx = newContext(evaluator.forRoot(start.getBoard()), start, depth, new SearchStats(profiling), SearchContext.NO_DEADLINE, null);
+		return finish(withDepth(pool.invoke(new SearchTask(ctx, start, depth, NO_BOUND)), depth, ctx.stats));
+	}
+
+	/** Finds best moves for many independent states. All searches are scheduled together on this
+	 * instance's pool and share its tables and cache. Since each search splits into subtasks that
+	 * idle threads can steal, a few expensive states don't hold up the rest.
+	 * @param starts states
+	 * @return {@link Choice} for each state, in same order as states
+	 */
+	public List<Choice> findBestMoves(List<State> starts){
+		final List<SearchTask> tasks = new ArrayList<SearchTask>(starts.size());
+		Choice[] known = new Choice[starts.size()];
+		for (int i = 0; i<known.length; i++){
+			State start = starts.get(i);
+			known[i] = fromBook(start, depth);
+			if (known[i]!=null) continue;
+			SearchContext ctx = newContext(evaluator.forRoot(start.getBoard()), start, depth, new SearchStats(profiling), SearchContext.NO_DEADLINE, null);
+			tasks.add(new SearchTask(ctx, start, depth, NO_BOUND));
+		}
+		pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+		List<Choice> choices = new ArrayList<Choice>(known.length);
+		int t = 0;
+		for (Choice c: known){
+			if (c!=null) choices.add(c);
+			else {
+				SearchTask task = tasks.get(t++);
+				choices.add(finish(withDepth(task.join(), depth, task.ctx.stats)));
+			}
+		}
+		return choices;
+	}
+
+	/** Finds best moves for a stream of independent states. See {@link #findBestMoves(List)}
+	 * @param starts states
+	 * @return {@link Choice} for each state, in encounter order of stream
+	 */
+	public List<Choice> findBestMoves(Stream<State> starts){
+		return findBestMoves(starts.collect(Collectors.toList()));
+	}
+
+	/** Finds best move given a state within given time. Searches with increasing depth, starting at 1,
+	 * and returns best move of deepest search that completed. Each search tries the root moves in
+	 * order of the previous search's values, leaving out illegal moves. Depth 1 is always completed.
+	 * @param start state
+	 * @param budget time allowed for search
+	 * @return {@link Choice} object containing info on best move found, and depth of search
+	 */
+	public Choice findBestMove(State start, Duration budget){
+		Choice known = fromBook(start, 0);
+		if (known!=null) return known;
+		long startTime = System.nanoTime();
+		long deadline = startTime + budget.toNanos();
+		Evaluator eval = evaluator.forRoot(start.getBoard());
+		SearchStats stats = new SearchStats(profiling);
+		Choice best = null;
+		int[] rootOrder = null;
+		long lastTime = 0;
+		for (int d = 1; d<=MAX_ITERATIVE_DEPTH; d++){
+			long iterationStart = System.nanoTime();
+			SearchContext ctx = newContext(eval, start, d, stats, d==1? SearchContext.NO_DEADLINE : deadline, rootOrder);
+			Choice c;
+			try {
+				c = pool.invoke(new SearchTask(ctx, start, d, NO_BOUND));
+			} catch (RuntimeException e) {
+				if (ctx.isCancelled()) break;
+				throw e;
+			}
+			best = withDepth(c, d, stats);
+			if (best.isEmptyChoice()) break;
+			int[] ranking = ctx.getRootRanking();
+			if (ranking!=null) rootOrder = ranking;
+			//don't start an iteration that can't finish, assuming it grows at least as fast as the last one
+			long now = System.nanoTime();
+			long time = now - iterationStart;
+			double growth = lastTime>0? Math.max(2, (double)time/lastTime) : 2;
+			if (now + time*growth - deadline > 0) break;
+			lastTime = time;
+		}
+		return finish(best);
+	}
+
+	/** Starts search for best move given a state on this instance's pool, without blocking.
+	 * Cancelling the returned future stops the search: tasks of the search still running or queued
+	 * give up when they next expand a node.
+	 * @param start state
+	 * @return future completed with {@link Choice} object containing info on best move found
+	 */
+	public CompletableFuture<Choice> findBestMoveAsync(State start){
+		return findBestMoveAsync(start, null);
+	}
+
+	/** Starts search for best move given a state on this instance's pool, without blocking. If a
+	 * progress callback is given, searches with increasing depth, starting at 1, up to the depth of
+	 * this instance, and passes best move of each depth completed to the callback, on a thread of the pool.
+	 * Each search tries the root moves in order of the previous search's values. Cancelling the returned
+	 * future stops the search: tasks of the search still running or queued give up when they next expand a node.
+	 * @param start state
+	 * @param progress called with best move found so far, or null
+	 * @return future completed with {@link Choice} object containing info on best move found
+	 */
+	public CompletableFuture<Choice> findBestMoveAsync(State start, Consumer<Choice> progress){
+		final CompletableFuture<Choice> future = new CompletableFuture<Choice>();
+		final AsyncSearch search = new AsyncSearch(start, progress, future);
+		future.whenComplete((c, e) -> {
+			if (future.isCancelled()) search.cancel();
+		});
+		pool.execute(search);
+		return future;
+	}
+
+	/** Creates context for a search with this instance's settings
+	 * @param eval evaluator bound to root of search
+	 * @param start root of search
+	 * @param depth depth of search
+	 * @param stats collects counters of search
+	 * @param deadline {@link System#nanoTime()} after which search is cancelled, or {@link SearchContext#NO_DEADLINE}
+	 * @param rootOrder order of root moves, or null
+	 * @return context of search
+	 */
+	private SearchContext newContext(Evaluator eval, State start, int depth, SearchStats stats, long deadline, int[] rootOrder){
+		return new SearchContext(eval, start, depth, seed, pruning, minProbability, sampling, stats, deadline, rootOrder);
+	}
+
+	/** Looks up state in opening book, if there is one with searches at least as deep as given depth,
+	 * and with the current settings of this instance
+	 * @param start state
+	 * @param minDepth least depth of book searches
+	 * @return best move from book, or null if there is none
+	 */
+	private Choice fromBook(State start, int minDepth){
+		OpeningBook b = book;
+		if (b==null || b.getDepth()<minDepth || !b.matches(this)) return null;
+		Choice c = b.lookup(start);
+		if (c==null) return null;
+		SearchStats stats = new SearchStats();
+		stats.addBookHit();
+		return finish(withDepth(c, b.getDepth(), stats));
+	}
+
+	/** Marks search that found choice as finished, and adds its statistics to {@link SearchMetrics}
+	 * @param c choice found by search
+	 * @return given choice
+	 */
+	static Choice finish(Choice c){
+		c.getStats().finish();
+		SearchMetrics.getInstance().record(c.getStats());
+		return c;
+	}
+
+	/** Marks choice as found by search of given depth
+	 * @param c choice
+	 * @param depth depth of search
+	 * @param stats statistics of search
+	 * @return choice with depth
+	 */
+	private static Choice withDepth(Choice c, int depth, SearchStats stats){
+		return c.isEmptyChoice()? Choice.getEmptyChoice(stats) : new Choice(c.getMove(), c.getValue(), depth, stats);
+	}
+
+	/** Sets seed of searches. Hole cards drawn by a search are derived from the seed and the
+	 * position they are drawn in, so searches of the same state with the same seed, depth and
+	 * evaluator draw the same cards however many threads they run on. Their values are the same up to
+	 * rounding in the last bits, which can differ with the order threads fill the {@link TranspositionTable}
+	 * in, so they pick the same move unless two moves are within that rounding of each other
+	 * @param seed seed of searches
+	 */
+	public void setSeed(long seed){
+		this.seed = seed;
+	}
+
+	/** Gets seed of searches
+	 * @return seed of searches
+	 */
+	public long getSeed(){
+		return seed;
+	}
+
+	/** Turns pruning of moves on or off. When on, outcomes of a move are no longer searched once
+	 * the move is shown, using {@link Evaluator#upperBound(State, int)}, to be worse than one already
+	 * searched. Pruned searches pick the same move as unpruned ones; see {@link SearchStats#getPrunedNodes()}
+	 * @param pruning whether to prune
+	 */
+	public void setPruning(boolean pruning){
+		this.pruning = pruning;
+	}
+
+	/** Indicates whether moves are pruned
+	 * @return true if pruning
+	 */
+	public boolean isPruning(){
+		return pruning;
+	}
+
+	/** Sets probability below which states are evaluated as leaves rather than searched further.
+	 * Probability of a state is the product of the chances of the outcomes leading to it from the root,
+	 * so the root itself is always searched. Cut states are counted by {@link SearchStats#getCutNodes()}.
+	 * Since where a subtree is cut depends on the probability it is reached with, {@link TranspositionTable}
+	 * entries are then only reused for states reached with exactly the same probability
+	 * @param minProbability minimum probability of searched states, 0 to search all states to full depth
+	 */
+	public void setMinProbability(double minProbability){
+		if (!(minProbability>=0 && minProbability<=1)) throw new IllegalArgumentException("Bad probability: " + minProbability);
+		this.minProbability = minProbability;
+	}
+
+	/** Gets probability below which states are evaluated as leaves
+	 * @return minimum probability of searched states
+	 */
+	public double getMinProbability(){
+		return minProbability;
+	}
+
+	/** Sets how next hole cards are chosen at each ply of search. Default is {@link SamplingPolicy#SINGLE}
+	 * @param sampling sampling policy
+	 */
+	public void setSamplingPolicy(SamplingPolicy sampling){
+		if (sampling==null) throw new NullPointerException("sampling");
+		this.sampling = sampling;
+	}
+
+	/** Gets how next hole cards are chosen at each ply of search
+	 * @return sampling policy
+	 */
+	public SamplingPolicy getSamplingPolicy(){
+		return sampling;
+	}
+
+	/** Turns profiling of searches on or off. When on, {@link SearchStats} of searches also
+	 * include time spent generating outcomes of moves and evaluating leaves, at some cost in speed
+	 * @param profiling whether to profile
+	 */
+	public void setProfiling(boolean profiling){
+		this.profiling = profiling;
+	}
+
+	/** Indicates whether searches are profiled
+	 * @return true if profiling
+	 */
+	public boolean isProfiling(){
+		return profiling;
+	}
+
+	/** Sets book of precomputed moves, looked up before searching. Used by fixed-depth searches
+	 * only if its moves were searched at least as deep, and always by searches within a time budget.
+	 * Only used while the settings of this instance (evaluator weights, seed, pruning, minimum probability
+	 * and sampling) are the ones the book was built with; see {@link OpeningBook#matches(ThreesGame)}
+	 * @param book opening book, or null for none
+	 */
+	public void setOpeningBook(OpeningBook book){
+		this.book = book;
+	}
+
+	/** Gets book of precomputed moves
+	 * @return opening book, or null if none
+	 */
+	public OpeningBook getOpeningBook(){
+		return book;
+	}
+
+	/** Gets depth of searches
+	 * @return max depth of tree searched
+	 */
+	public int getDepth(){
+		return depth;
+	}
+
+	/** Gets evaluator used for leaf states
+	 * @return evaluator
+	 */
+	public Evaluator getEvaluator(){
+		return evaluator;
+	}
+
+	/** Gets transposition table used by search
+	 * @return transposition table, or null if disabled
+	 */
+	public TranspositionTable getTranspositionTable(){
+		return transpositionTable;
+	}
+
+	/** Shuts down thread pool used for search, unless it was supplied by the caller
+	 */
+	@Override
+	public void close(){
+		if (ownsPool) pool.shutdown();
+	}
+
+	/** Search started by {@link ThreesGame#findBestMoveAsync(State, Consumer)}, completing a future
+	 * @author Peter Rimshnick
+	 *
+	 */
+	private class AsyncSearch extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final State start;
+		private final Consumer<Choice> progress;
+		private final CompletableFuture<Choice> future;
+		/** Context of search of current depth */
+		private volatile SearchContext current;
+
+		AsyncSearch(State start, Consumer<Choice> progress, CompletableFuture<Choice> future){
+			this.start = start;
+			this.progress = progress;
+			this.future = future;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				Choice known = fromBook(start, depth);
+				if (known!=null){
+					if (progress!=null) progress.accept(known);
+					future.complete(known);
+					return;
+				}
+				Evaluator eval = evaluator.forRoot(start.getBoard());
+				SearchStats stats = new SearchStats(profiling);
+				Choice best = null;
+				int[] rootOrder = null;
+				for (int d = progress==null? depth : Math.min(1, depth); d<=depth; d++){
+					SearchContext ctx = newContext(eval, start, d, stats, SearchContext.NO_DEADLINE, rootOrder);
+					current = ctx;
+					//checked after publishing context, so a cancel either sees it or is seen here
+					if (future.isDone()) return;
+					best = withDepth(new SearchTask(ctx, start, d, NO_BOUND).invoke(), d, stats);
+					if (progress!=null) progress.accept(best);
+					if (best.isEmptyChoice()) break;
+					int[] ranking = ctx.getRootRanking();
+					if (ranking!=null) rootOrder = ranking;
+				}
+				future.complete(finish(best));
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			}
+		}
+
+		/** Cancels search of current depth, and keeps deeper ones from starting
+		 */
+		void cancel(){
+			SearchContext ctx = current;
+			if (ctx!=null) ctx.cancel();
+		}
+	}
+
+	/** Search of subtree run on fork/join pool
+	 * @author Peter Rimshnick
+	 *
+	 */
+	private class SearchTask extends RecursiveTask<Choice> {
+		private static final long serialVersionUID = 1L;
+		private final SearchContext ctx;
+		private final State s;
+		private final int depth;
+		private final double alpha;
+		private final long created = System.nanoTime();
+
+		SearchTask(SearchContext ctx, State s, int depth, double alpha){
+			this.ctx = ctx;
+			this.s = s;
+			this.depth = depth;
+			this.alpha = alpha;
+		}
+
+		@Override
+		protected Choice compute() {
+			ctx.stats.addQueueWait(System.nanoTime() - created);
+			return findBestMove(ctx, s, depth, alpha);
+		}
 	}
 	
-	/** Internal method used to find best move. Uses concurrent, bounded, depth-first search.
-	 * @param root root of tree
+	/** Internal method used to find best move. Uses bounded, depth-first search. Subtrees estimated to be large
+	 * enough are searched in parallel on the fork/join pool, smaller ones sequentially. States less likely
+	 * than the minimum probability are evaluated as leaves.
+	 * <p>
+	 * If pruning, moves are searched against a lower bound alpha. A result below alpha is only an upper
+	 * bound of the true value, which is then known to be below alpha too; a result at or above alpha is exact.
+	 * @param ctx context of search
 	 * @param s current state to be evaluated
 	 * @param depth how deep current search is
-	 * @param threadDepth how much deeper to go before we stop concurrency
+	 * @param alpha lower bound, weighted by probability, below which value of state need not be exact
 	 * @return best move found
 	 */
-	private Choice findBestMove(final State root, final State s, final int depth, final int threadDepth) {		
+	private Choice findBestMove(SearchContext ctx, State s, int depth, double alpha) {		
+		int ply = ctx.depth - depth;
+		if (depth>0 && s.getProbability()<ctx.minProbability){
+			//too unlikely to be worth searching further
+			ctx.stats.addCutNode(ply);
+			return new Choice(new NullMove(s), evaluateLeaf(ctx, s));
+		}
 		if (depth>0){
-			Move[] options = {new Left(s), new Right(s), new Up(s), new Down(s)};
-			Choice emptyChoice = Choice.getEmptyChoice();
+			ctx.checkCancelled();
+			ctx.stats.addNodes(ply, 1);
+			if (transpositionTable!=null) {
+				Choice cached = transpositionTable.get(s, depth, ctx.tableTag, alpha, ctx.minProbability>0);
+				ctx.stats.addTableProbe(cached!=null);
+				if (cached!=null) return cached;
+			}
+			long generationStart = ctx.stats.isProfiling()? System.nanoTime() : 0;
+			Move[] options = ctx.moves(s);
+			int samples = ctx.samples(s, depth);
+			//outcomes are only generated as they are searched
+			Outcomes[] endStates = new Outcomes[options.length];
+			int branching = 0;
+			for (int i = 0; i<options.length; i++){
+				Outcomes mStates = options[i].outcomes(ctx.random(s, options[i]), samples);
+				if (mStates.remaining()==0) continue;
+				endStates[i] = mStates;
+				branching += mStates.remaining();
+			}
+			if (ctx.stats.isProfiling()) ctx.stats.addMoveGenerationNanos(System.nanoTime() - generationStart);
 			List<Choice> choices = new ArrayList<Choice>();
-			if (threadDepth>0){
-				List<Future<Choice>> futures = new ArrayList<Future<Choice>>();
-				for (final Move m: options){
-					Future<Choice> future = threadPool.submit(new Callable<Choice>(){
-						@Override
-						public Choice call() throws Exception {
-							return evaluateMove(root, s, m, depth, threadDepth);
-						}						
-					});
-					futures.add(future);
+			if (Math.pow(branching, depth)>=SPLIT_THRESHOLD && ForkJoinTask.inForkJoinPool()
+					&& ForkJoinTask.getSurplusQueuedTaskCount()<=MAX_SURPLUS_TASKS){
+				List<SearchTask> tasks = new ArrayList<SearchTask>(branching);
+				int[] counts = new int[options.length];
+				for (int i = 0; i<options.length; i++){
+					if (endStates[i]==null) continue;
+					for (State mState = next(ctx, endStates[i]); mState!=null; mState = next(ctx, endStates[i])){
+						tasks.add(new SearchTask(ctx, mState, depth-1, NO_BOUND));
+						counts[i]++;
+					}
+					ctx.stats.addMergedNodes(endStates[i].merged());
 				}
-				for (Future<Choice> future: futures){
-					Choice c = null;
-					try {
-						c = future.get();
-					} catch (InterruptedException | ExecutionException e) {
-						throw new RuntimeException(e);
+				if (depth==1) countLeaves(ctx, ply+1, tasks.size());
+				ForkJoinTask.invokeAll(tasks);
+				int t = 0;
+				for (int i = 0; i<options.length; i++){
+					if (endStates[i]==null) continue;
+					double avg = 0;
+					for (int k = 0; k<counts[i]; k++){
+						avg += tasks.get(t++).join().getValue();
 					}
-					if (c!=null) choices.add(c);
+					choices.add(new Choice(options[i], avg));
 				}
 			}
 			else {
-				for (Move m: options){
-					Choice c = null;					
-					c = evaluateMove(root, s, m, depth,0);
-					if (c!=null) choices.add(c);				
+				//upper bound of value per unit of probability of anything below s
+				double upper = ctx.pruning? ctx.eval.upperBound(s, depth) : Double.POSITIVE_INFINITY;
+				double bound = alpha;
+				for (int i = 0; i<options.length; i++){
+					if (endStates[i]==null) continue;
+					Choice c = evaluateMove(ctx, options[i], endStates[i], depth, bound, upper);
+					choices.add(c);
+					if (c.getValue()>bound) bound = c.getValue();
 				}
-			}			
-			if (choices.isEmpty()) return emptyChoice;
-			Collections.sort(choices);
-			return choices.get(choices.size()-1);
+			}
+			Choice best;
+			if (choices.isEmpty()) best = Choice.getEmptyChoice();
+			else {
+				Collections.sort(choices);
+				best = choices.get(choices.size()-1);
+			}
+			if (s==ctx.root) ctx.setRootChoices(choices);
+			if (transpositionTable!=null) transpositionTable.put(s, depth, ctx.tableTag, best, best.getValue()<alpha);
+			return best;
+		}
+		else {
+			//leaves are counted by their parent, unless the root is one
+			if (s==ctx.root) countLeaves(ctx, ply, 1);
+			return new Choice(new NullMove(s), evaluateLeaf(ctx, s));
 		}
-		else return new Choice(new NullMove(s), evaluateState(root, s));
 
 	}
 
-	/** Evaluates given move choice
-	 * @param root root of tree
-	 * @param s current state
+	/** Evaluates given move choice. If pruning, stops searching outcomes once the move's value is
+	 * shown to be below alpha, assuming every outcome not yet searched reaches the upper bound
+	 * (star1 pruning). Outcomes after that are never generated
+	 * @param ctx context of search
 	 * @param m proposed move
+	 * @param endStates cursor over possible outcomes of move
 	 * @param depth how deep search has gone so far
-	 * @param threadDepth how much deeper we go before we stop concurrency
-	 * @return {@link Choice} object representing move and its value
+	 * @param alpha lower bound, weighted by probability, below which value of move need not be exact
+	 * @param upper upper bound of value of outcomes per unit of probability
+	 * @return {@link Choice} object representing move and its value, or an upper bound of its value
+	 * below alpha if pruned
 	 */
-	private Choice evaluateMove(State root, State s, Move m, int depth, int threadDepth){
+	private Choice evaluateMove(SearchContext ctx, Move m, Outcomes endStates, int depth, double alpha, double upper){
 		double avg = 0;				
-		State[] endStates = m.findEndStatesForSearch();
-		if (endStates.length==1 && endStates[0]==s) return null;
-		for (State mState: endStates){
-			avg += findBestMove(root, mState, depth-1, threadDepth-1).getValue();					
+		int searched = 0;
+		try {
+			if (alpha==NO_BOUND || !(upper<Double.POSITIVE_INFINITY)){
+				for (State mState = next(ctx, endStates); mState!=null; mState = next(ctx, endStates)){
+					avg += findBestMove(ctx, mState, depth-1, NO_BOUND).getValue();					
+					searched++;
+				}
+				return new Choice(m,avg);		
+			}
+			double remaining = endStates.probability()*upper;
+			for (State mState = next(ctx, endStates); mState!=null; mState = next(ctx, endStates)){
+				double mUpper = mState.getProbability()*upper;
+				remaining -= mUpper;
+				//outcome must beat this for move to reach alpha
+				double mAlpha = alpha - avg - remaining;
+				if (mAlpha>mUpper){
+					ctx.stats.addPrunedNodes(endStates.remaining()+1);
+					return new Choice(m, Math.min(avg + mUpper + remaining, Math.nextDown(alpha)));
+				}
+				double value = findBestMove(ctx, mState, depth-1, mAlpha).getValue();
+				avg += value;
+				searched++;
+				if (value<mAlpha){
+					ctx.stats.addPrunedNodes(endStates.remaining());
+					return new Choice(m, Math.min(avg + remaining, Math.nextDown(alpha)));
+				}
+			}
+			return new Choice(m,avg);		
+		} finally {
+			ctx.stats.addMergedNodes(endStates.merged());
+			if (depth==1) countLeaves(ctx, ctx.depth-depth+1, searched);
 		}
-		return new Choice(m,avg);		
 	}
 
-	/** Evaluates state based on various heuristics
-	 * @param root root state of search
-	 * @param state current state
-	 * @return score of current state
+	/** Gets next outcome of move, timing it if profiling
+	 * @param ctx context of search
+	 * @param outcomes outcomes of move
+	 * @return next outcome, or null if none are left
 	 */
-	private double evaluateState(State root, State state){
-		double boardScore = boardWeight<EPSILON? 0 : getBoardScore(root.getBoard())/getBoardScore(state.getBoard());
-		int freeCellScore = freeCellWeight<EPSILON? 0 : getFreeCellScore(state.getBoard());
-		int matchableScore = matchableWeight<EPSILON? 0 : getMatchableScore(state.getBoard());
-		double score = (boardScore*boardWeight + freeCellScore*freeCellWeight + matchableScore*matchableWeight) * state.getProbability();
-		return score;
+	private static State next(SearchContext ctx, Outcomes outcomes){
+		if (!ctx.stats.isProfiling()) return outcomes.next();
+		long start = System.nanoTime();
+		State s = outcomes.next();
+		ctx.stats.addMoveGenerationNanos(System.nanoTime() - start);
+		return s;
 	}
 
-	/** Finds score of board
-	 * @param board
-	 * @return score of given board
+	/** Counts leaves searched at given ply. Leaves are counted in bulk by their parent rather than
+	 * one by one, since they are most of the nodes of a search
+	 * @param ctx context of search
+	 * @param ply distance of leaves from root
+	 * @param count number of leaves
 	 */
-	public static double getBoardScore(Board board) {
-		double score = 0;
-		for (int[] row: board.getBoardArray()){
-			for (int cell: row){
-				if (cell>2) score += Math.pow(3, Math.log(cell/3)/Math.log(2)+1);  //3^(log_2(cell/3)+1) = 3^((log(cell/3)/log(2))+1)
-			}
-		}
-		return score;
+	private static void countLeaves(SearchContext ctx, int ply, long count){
+		ctx.stats.addNodes(ply, count);
+		ctx.stats.addLeafEvaluations(count);
 	}
 
-	/** Counts number of free cells in board
-	 * @param board
-	 * @return number of free cells in board
+	/** Evaluates leaf of search, weighted by its probability, timing it if profiling
+	 * @param ctx context of search
+	 * @param state leaf
+	 * @return score of leaf
 	 */
-	private int getFreeCellScore(Board board) {
-		int freeCount = 0;
-		for (int[] row: board.getBoardArray()){
-			for (int cell: row){
-				if (cell==0) freeCount ++;
-			}
-		}
-		return freeCount;
+	private double evaluateLeaf(SearchContext ctx, State state){
+		if (!ctx.stats.isProfiling()) return evaluateState(ctx.eval, state);
+		long start = System.nanoTime();
+		double value = evaluateState(ctx.eval, state);
+		ctx.stats.addEvaluationNanos(System.nanoTime() - start);
+		return value;
 	}
 
-	/** Counts number of matched cells in board
+	/** Evaluates state based on various heuristics, weighted by probability of state
+	 * @param eval evaluator bound to root of search
+	 * @param state current state
+	 * @return score of current state
+	 */
+	double evaluateState(Evaluator eval, State state){
+		return eval.evaluate(state) * state.getProbability();
+	}
+
+	/** Finds score of board
 	 * @param board
-	 * @return number of matched cells in board
-	 */
-	private int getMatchableScore(Board board) {
-		int[][] boardArray = board.getBoardArray();
-		int score = 0;
-		for (int i = 0; i < boardArray.length; i++){
-			for (int j = 0; j < boardArray[0].length; j++){
-				if (i>0 && canMatch(boardArray[i][j], boardArray[i-1][j])) score++;
-				if (i<boardArray.length-1 && canMatch(boardArray[i][j], boardArray[i+1][j])) score++;
-				if (j>0 && canMatch(boardArray[i][j], boardArray[i][j-1])) score++;
-				if (j<boardArray.length-1 && canMatch(boardArray[i][j], boardArray[i][j+1])) score++;				
-			}
-		}
-		return score;
+	 * @return score of given board
+	 */
+	public static double getBoardScore(Board board) {
+		return DefaultEvaluator.getBoardScore(board.getPackedBoard());
 	}
 
 	/** Determines whether two cells can be matched based on value
@@ -224,20 +720,33 @@ public class ThreesGame {
 	 * @param board current board
 	 * @return random card stack given current board
 	 */
-	public static Map<HoleCard,Integer> generateCardStack(Board board) {
+	public static Deck generateCardStack(Board board) {
+		return generateCardStack(board, rand.nextDouble()<.5);
+	}
+
+	/** Generates random card stack based on available cards left given board
+	 * @param board current board
+	 * @param random source of randomness
+	 * @return random card stack given current board
+	 */
+	public static Deck generateCardStack(Board board, SplittableRandom random) {
+		return generateCardStack(board, random.nextDouble()<.5);
+	}
+
+	/** Generates card stack based on available cards left given board
+	 * @param board current board
+	 * @param withBonus whether stack has a bonus card, if board allows it
+	 * @return card stack given current board
+	 */
+	private static Deck generateCardStack(Board board, boolean withBonus) {
 		//Just generate one at random, don't split state space
-		Map<HoleCard, Integer> stack = new HashMap<HoleCard,Integer>();
-		stack.put(new RegularHoleCard(3),4);
-		stack.put(new RegularHoleCard(2),4);
-		stack.put(new RegularHoleCard(1),4);
-
-		if (rand.nextDouble()<.5){
-			List<Integer> possibleAdditions = getPossibleAdditions(board.getBoardArray());
-			if (possibleAdditions.size()>0) {
-				stack.put(new AmbiguousHoleCard(possibleAdditions),1);			
-			}
+		int bonusRank = 0;
+		if (withBonus){
+			//possible additions are 3 up to 1/8th of max card
+			int maxRank = PackedBoard.maxRank(board.getPackedBoard());
+			if (maxRank-3>=3) bonusRank = maxRank-3;
 		}
-		return stack;
+		return Deck.of(Deck.MAX_COUNT, Deck.MAX_COUNT, Deck.MAX_COUNT, bonusRank);
 	}
 	
 	/** Finds possible hole card values given current board. Hole card values cannot exceed
@@ -252,6 +761,14 @@ public class ThreesGame {
 				if (cell>maxCard) maxCard = cell;
 			}
 		}
+		return getPossibleAdditions(maxCard);
+	}
+
+	/** Finds possible hole card values given max card on board
+	 * @param maxCard value of max card on board
+	 * @return possible hole card values
+	 */
+	static List<Integer> getPossibleAdditions(int maxCard){
 		List<Integer> possibleAdditions = new ArrayList<Integer>();
 		for (int i = 3; i<=maxCard/8; i*=2){
 			possibleAdditions.add(i);
@@ -264,6 +781,15 @@ public class ThreesGame {
 	 * @return random state based on given distribution
 	 */
 	public static State pickState(State[] endStates){
+		return pickState(endStates, rand);
+	}
+
+	/** Picks a random state from a list based on their probabilities
+	 * @param endStates possible states
+	 * @param random source of randomness
+	 * @return random state based on given distribution
+	 */
+	public static State pickState(State[] endStates, Random random){
 		double prob = 0;
 		for (State s: endStates){
 			prob += s.getProbability();
@@ -276,13 +802,13 @@ public class ThreesGame {
 				return Double.compare(s2.getProbability(), s1.getProbability()); //ascending
 			}
 		});
-		double random = rand.nextDouble();
+		double r = random.nextDouble();
 		double sum = 0;
 		int i = -1;
 		do {
 			sum += stateList.get(++i).getProbability();
 		}
-		while ((random > sum) && i<stateList.size()-1);
+		while ((r > sum) && i<stateList.size()-1);
 		return stateList.get(i);
 	}
 
@@ -0,0 +1,245 @@
+/* Copyright (c) 2014 Peter Rimshnick
+ * See the file license.txt for copying permission.
+ */
+package pmr.threes;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/** Bounded, thread safe cache of search results. Entries are keyed on packed board, hole card, card stack and
+ * remaining depth, plus a tag for the root and seed of the search, since the board score heuristic is relative to the root
+ * and the cards drawn depend on the seed.
+ * Entries record the value and probability of the state they were found for. Reached with the same
+ * probability, e.g. by the same moves and draws in a different order, a position gets the stored value as
+ * is; reached with another probability, the value is rescaled to it, so it can differ from a fresh search
+ * in its last bits depending on which path filled the entry first. Searches that cut off unlikely states
+ * only reuse entries of the same probability, since a subtree reached with another probability would be
+ * cut elsewhere. Results of pruned searches that are
+ * only upper bounds are marked as such, and only returned to searches they still prune.
+ * <p>
+ * The table is split into buckets of two slots. The first slot keeps the deepest result seen for the
+ * bucket, the second always takes the newest result, and entries with a different root tag are
+ * replaced first.
+ * @author Peter Rimshnick
+ *
+ */
+public class TranspositionTable {
+
+	/** Rough heap footprint of one entry, including its slot in the table */
+	static final int BYTES_PER_ENTRY = 64;
+
+	/** Move code for positions with no legal move */
+	static final int NO_MOVE = 0;
+
+	private final AtomicReferenceArray<Entry> slots;
+	private final int bucketMask;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/** Immutable table entry. Replaced as a whole so readers never see a partial write
+	 */
+	private static final class Entry {
+		final long board;
+		final long rootTag;
+		final int holeCard;
+		final int depth;
+		final int move;
+		final double probability;
+		final double value;
+		final boolean upperBound;
+
+		Entry(long board, long rootTag, int holeCard, int depth, int move, double probability, double value, boolean upperBound){
+			this.board = board;
+			this.rootTag = rootTag;
+			this.holeCard = holeCard;
+			this.depth = depth;
+			this.move = move;
+			this.probability = probability;
+			this.value = value;
+			this.upperBound = upperBound;
+		}
+
+		boolean matches(long board, long rootTag, int holeCard, int depth){
+			return this.board==board && this.rootTag==rootTag && this.holeCard==holeCard && this.depth==depth;
+		}
+
+		/** Gets value of entry for state of given probability
+		 * @param p probability of state
+		 * @return stored value if probability is the same, else value rescaled to probability
+		 */
+		double valueFor(double p){
+			return p==probability? value : value/probability*p;
+		}
+	}
+
+	/** Constructs table using at most roughly the given amount of memory
+	 * @param maxBytes memory budget of table in bytes
+	 */
+	public TranspositionTable(long maxBytes){
+		long entries = Math.max(2, maxBytes/BYTES_PER_ENTRY);
+		int buckets = Integer.highestOneBit((int)Math.min(entries/2, 1<<29));
+		this.slots = new AtomicReferenceArray<Entry>(buckets*2);
+		this.bucketMask = buckets-1;
+	}
+
+	/** Looks up result of search
+	 * @param state searched state
+	 * @param depth remaining depth of search
+	 * @param rootTag tag of root of search
+	 * @return cached {@link Choice} with value weighted by probability of state, or null if not found
+	 */
+	Choice get(State state, int depth, long rootTag){
+		return get(state, depth, rootTag, Double.NEGATIVE_INFINITY, false);
+	}
+
+	/** Looks up result of search with given lower bound
+	 * @param state searched state
+	 * @param depth remaining depth of search
+	 * @param rootTag tag of root of search
+	 * @param alpha lower bound of search, weighted by probability of state. An upper bound found is
+	 * only returned if it is below alpha
+	 * @param sameProbability whether only an entry found for the same probability of state is returned
+	 * @return cached {@link Choice} with value weighted by probability of state, or null if not found
+	 */
+	Choice get(State state, int depth, long rootTag, double alpha, boolean sameProbability){
+		long board = state.getBoard().getPackedBoard();
+		int holeCard = stateCode(state);
+		int bucket = bucketIndex(board, holeCard, depth);
+		for (int i = bucket; i<bucket+2; i++){
+			Entry e = slots.get(i);
+			if (e!=null && e.matches(board, rootTag, holeCard, depth)
+					&& (!sameProbability || e.probability==state.getProbability())){
+				double value = e.valueFor(state.getProbability());
+				if (e.upperBound && !(value<alpha)) continue;
+				hits.incrementAndGet();
+				if (e.move==NO_MOVE) return Choice.getEmptyChoice();
+				return new Choice(moveFor(e.move, state), value);
+			}
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/** Stores result of search
+	 * @param state searched state
+	 * @param depth remaining depth of search
+	 * @param rootTag tag of root of search
+	 * @param choice best choice found for state
+	 */
+	void put(State state, int depth, long rootTag, Choice choice){
+		put(state, depth, rootTag, choice, false);
+	}
+
+	/** Stores result of search
+	 * @param state searched state
+	 * @param depth remaining depth of search
+	 * @param rootTag tag of root of search
+	 * @param choice best choice found for state
+	 * @param upperBound whether value of choice is only an upper bound of true value
+	 */
+	void put(State state, int depth, long rootTag, Choice choice, boolean upperBound){
+		if (!(state.getProbability()>0)) return;
+		int move = choice.isEmptyChoice()? NO_MOVE : moveCode(choice.getMove());
+		if (move<0) return;
+		long board = state.getBoard().getPackedBoard();
+		int holeCard = stateCode(state);
+		Entry e = new Entry(board, rootTag, holeCard, depth, move, state.getProbability(), choice.getValue(), upperBound);
+		int bucket = bucketIndex(board, holeCard, depth);
+		Entry deepest = slots.get(bucket);
+		if (deepest==null || deepest.rootTag!=rootTag || deepest.depth<=depth) slots.set(bucket, e);
+		else slots.set(bucket+1, e);
+	}
+
+	/** Removes all entries and resets counters
+	 */
+	public void clear(){
+		for (int i = 0; i<slots.length(); i++){
+			slots.set(i, null);
+		}
+		hits.set(0);
+		misses.set(0);
+	}
+
+	/** Gets number of lookups that found an entry
+	 * @return number of hits
+	 */
+	public long getHits(){
+		return hits.get();
+	}
+
+	/** Gets number of lookups that found no entry
+	 * @return number of misses
+	 */
+	public long getMisses(){
+		return misses.get();
+	}
+
+	/** Gets number of entries the table can hold
+	 * @return capacity of table
+	 */
+	public int getCapacity(){
+		return slots.length();
+	}
+
+	private int bucketIndex(long board, int holeCard, int depth){
+		long h = board*0x9E3779B97F4A7C15L + holeCard*0xC2B2AE3D27D4EB4FL + depth;
+		h ^= h>>>29;
+		h *= 0xBF58476D1CE4E5B9L;
+		h ^= h>>>32;
+		return ((int)h & bucketMask)<<1;
+	}
+
+	/** Encodes hole card and card stack of state as int. The card stack decides the cards drawn below
+	 * the state, so states differing only in it are different positions to the search
+	 * @param state
+	 * @return code of hole card and card stack
+	 */
+	static int stateCode(State state){
+		return holeCardCode(state.getHoleCard()) | state.getCardStack().index()<<17;
+	}
+
+	/** Encodes hole card as int. Regular cards map to their rank, ambiguous cards to a bit set
+	 * of their possible ranks
+	 * @param holeCard
+	 * @return code of hole card
+	 */
+	static int holeCardCode(HoleCard holeCard){
+		if (holeCard instanceof RegularHoleCard) return PackedBoard.rankOf(((RegularHoleCard)holeCard).value);
+		if (holeCard instanceof AmbiguousHoleCard){
+			int code = 1<<16;
+			for (int rank: ((AmbiguousHoleCard)holeCard).possibleRanks){
+				code |= 1<<rank;
+			}
+			return code;
+		}
+		return -1;
+	}
+
+	/** Encodes move as int
+	 * @param move
+	 * @return code of move, or -1 if move cannot be cached
+	 */
+	static int moveCode(Move move){
+		if (move instanceof Left) return 1;
+		if (move instanceof Right) return 2;
+		if (move instanceof Up) return 3;
+		if (move instanceof Down) return 4;
+		return -1;
+	}
+
+	/** Creates move from its code
+	 * @param code code of move
+	 * @param state state move is made from
+	 * @return move
+	 */
+	static Move moveFor(int code, State state){
+		switch (code){
+		case 1: return new Left(state);
+		case 2: return new Right(state);
+		case 3: return new Up(state);
+		case 4: return new Down(state);
+		default: throw new IllegalArgumentException("Unknown move code: " + code);
+		}
+	}
+
+}
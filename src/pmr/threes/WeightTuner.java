@@ -0,0 +1,309 @@
+/* Copyright (c) 2014 Peter Rimshnick
+ * See the file license.txt for copying permission.
+ */
+package pmr.threes;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/** Tunes the weights of {@link DefaultEvaluator} by simulated annealing, scoring each candidate by the
+ * mean score of {@link SelfPlay} games run across all cores. Every candidate plays the same game seeds,
+ * so candidates are compared on the same draws rather than through the noise of different games, and a
+ * candidate's score is the same whenever it is played.
+ * <p>
+ * Weights are kept on the simplex (non-negative, summing to 1), since only their ratios change which
+ * move is best. Each iteration moves the current weights by a Gaussian step, and accepts the move if it
+ * scores better, or else with a probability that falls with the relative loss of score and with the
+ * temperature. Step size and temperature shrink by the same factor every iteration.
+ * <p>
+ * The tuner's state is written to a checkpoint file after every iteration, and a run resumes from its
+ * checkpoint. The random step of each iteration is derived from the seed and the iteration number, so a
+ * resumed run ends with the same weights as an uninterrupted one.
+ * @author Peter Rimshnick
+ *
+ */
+public class WeightTuner {
+
+	/** Default weights, used as starting point */
+	public static final double[] DEFAULT_WEIGHTS = {.39, .47, .14};
+
+	private final int depth;
+	private final int games;
+	private final long seed;
+	private final int threads;
+	private double initialStep = .1;
+	private double initialTemperature = .02;
+	private double cooling = .97;
+
+	private int iteration;
+	private double[] current = DEFAULT_WEIGHTS.clone();
+	private double currentScore = Double.NaN;
+	private double[] best;
+	private double bestScore = Double.NaN;
+
+	/** Constructs tuner starting from {@link #DEFAULT_WEIGHTS}
+	 * @param depth depth of self-play searches
+	 * @param games number of games each candidate plays
+	 * @param seed seed of first game; also seeds the steps of the annealer
+	 * @param threads number of games played at once
+	 */
+	public WeightTuner(int depth, int games, long seed, int threads){
+		this.depth = depth;
+		this.games = games;
+		this.seed = seed;
+		this.threads = threads;
+	}
+
+	/** Sets size of first step, as standard deviation of the change of each weight
+	 * @param step step size at first iteration
+	 */
+	public void setStep(double step){
+		this.initialStep = step;
+	}
+
+	/** Sets first temperature, as the relative loss of score accepted with probability 1/e
+	 * @param temperature temperature at first iteration
+	 */
+	public void setTemperature(double temperature){
+		this.initialTemperature = temperature;
+	}
+
+	/** Sets factor step size and temperature are multiplied by every iteration
+	 * @param cooling factor, between 0 and 1
+	 */
+	public void setCooling(double cooling){
+		this.cooling = cooling;
+	}
+
+	/** Sets weights search starts from
+	 * @param weights board, free cell and matchable weights, normalized to sum to 1
+	 */
+	public void setStart(double[] weights){
+		current = normalize(weights);
+		currentScore = Double.NaN;
+	}
+
+	/** Gets number of iterations done
+	 * @return iterations done
+	 */
+	public int getIteration(){
+		return iteration;
+	}
+
+	/** Gets best weights found
+	 * @return board, free cell and matchable weights, or null if none have been scored
+	 */
+	public double[] getBest(){
+		return best==null? null : best.clone();
+	}
+
+	/** Gets mean self-play score of best weights
+	 * @return best score, or NaN if none have been scored
+	 */
+	public double getBestScore(){
+		return bestScore;
+	}
+
+	/** Scores weights by mean score of self-play games with seeds seed to seed+games-1
+	 * @param weights board, free cell and matchable weights
+	 * @param pool pool searches run on
+	 * @return mean score
+	 */
+	public double score(double[] weights, ForkJoinPool pool){
+		Evaluator evaluator = new DefaultEvaluator(weights[0], weights[1], weights[2]);
+		try (ThreesGame game = new ThreesGame(depth, evaluator, ThreesGame.DEFAULT_TABLE_BYTES, pool)){
+			return new SelfPlay(game, threads).run(games, seed).getMeanScore();
+		}
+	}
+
+	/** Runs annealer until given number of iterations are done, saving a checkpoint after each
+	 * @param iterations total number of iterations, including those done before resuming
+	 * @param checkpoint checkpoint file, or null for none
+	 * @return best weights found
+	 * @throws IOException if checkpoint cannot be written
+	 */
+	public double[] run(int iterations, Path checkpoint) throws IOException {
+		return run(iterations, checkpoint, null);
+	}
+
+	/** Runs annealer until given number of iterations are done, saving a checkpoint after each
+	 * @param iterations total number of iterations, including those done before resuming
+	 * @param checkpoint checkpoint file, or null for none
+	 * @param progress called with tuner after each iteration, or null
+	 * @return best weights found
+	 * @throws IOException if checkpoint cannot be written
+	 */
+	public double[] run(int iterations, Path checkpoint, Consumer<WeightTuner> progress) throws IOException {
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			if (Double.isNaN(currentScore)){
+				currentScore = score(current, pool);
+				if (best==null || currentScore>bestScore) {
+					best = current.clone();
+					bestScore = currentScore;
+				}
+				if (checkpoint!=null) save(checkpoint);
+			}
+			while (iteration<iterations){
+				double decay = Math.pow(cooling, iteration);
+				double step = initialStep*decay;
+				double temperature = initialTemperature*decay;
+				Random random = new Random(seed*31 + iteration);
+				double[] candidate = current.clone();
+				for (int i = 0; i<candidate.length; i++){
+					candidate[i] = Math.max(0, candidate[i] + step*random.nextGaussian());
+				}
+				candidate = normalize(candidate);
+				double score = score(candidate, pool);
+				double loss = (currentScore-score)/Math.max(Math.abs(currentScore), 1);
+				if (loss<=0 || random.nextDouble()<Math.exp(-loss/temperature)){
+					current = candidate;
+					currentScore = score;
+				}
+				if (score>bestScore){
+					best = candidate.clone();
+					bestScore = score;
+				}
+				iteration++;
+				if (progress!=null) progress.accept(this);
+				if (checkpoint!=null) save(checkpoint);
+			}
+			return best.clone();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/** Scales weights to sum to 1, or to equal weights if all are 0
+	 * @param weights non-negative weights
+	 * @return normalized copy of weights
+	 */
+	static double[] normalize(double[] weights){
+		double sum = 0;
+		for (double w: weights){
+			if (w<0) throw new IllegalArgumentException("Negative weight: " + w);
+			sum += w;
+		}
+		double[] normalized = new double[weights.length];
+		for (int i = 0; i<weights.length; i++){
+			normalized[i] = sum>0? weights[i]/sum : 1.0/weights.length;
+		}
+		return normalized;
+	}
+
+	/** Writes state of tuner to checkpoint file, replacing it atomically
+	 * @param path checkpoint file
+	 * @throws IOException if file cannot be written
+	 */
+	public void save(Path path) throws IOException {
+		Properties p = new Properties();
+		p.setProperty("depth", Integer.toString(depth));
+		p.setProperty("games", Integer.toString(games));
+		p.setProperty("seed", Long.toString(seed));
+		p.setProperty("iteration", Integer.toString(iteration));
+		p.setProperty("current", join(current));
+		p.setProperty("currentScore", Double.toString(currentScore));
+		if (best!=null){
+			p.setProperty("best", join(best));
+			p.setProperty("bestScore", Double.toString(bestScore));
+		}
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)){
+			p.store(out, "WeightTuner checkpoint");
+		}
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/** Restores state of tuner from checkpoint file
+	 * @param path checkpoint file
+	 * @throws IOException if file cannot be read
+	 * @throws IllegalArgumentException if checkpoint was written with another depth, number of games or seed
+	 */
+	public void resume(Path path) throws IOException {
+		Properties p = new Properties();
+		try (Reader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)){
+			p.load(in);
+		}
+		if (Integer.parseInt(p.getProperty("depth"))!=depth || Integer.parseInt(p.getProperty("games"))!=games
+				|| Long.parseLong(p.getProperty("seed"))!=seed) {
+			throw new IllegalArgumentException("Checkpoint is for depth " + p.getProperty("depth") + ", " + p.getProperty("games")
+				+ " games and seed " + p.getProperty("seed"));
+		}
+		iteration = Integer.parseInt(p.getProperty("iteration"));
+		current = split(p.getProperty("current"));
+		currentScore = Double.parseDouble(p.getProperty("currentScore"));
+		if (p.getProperty("best")!=null){
+			best = split(p.getProperty("best"));
+			bestScore = Double.parseDouble(p.getProperty("bestScore"));
+		}
+	}
+
+	private static String join(double[] weights){
+		StringBuilder sb = new StringBuilder();
+		for (double w: weights){
+			if (sb.length()>0) sb.append(' ');
+			sb.append(w);
+		}
+		return sb.toString();
+	}
+
+	private static double[] split(String weights){
+		String[] parts = weights.trim().split(" ");
+		double[] w = new double[parts.length];
+		for (int i = 0; i<parts.length; i++){
+			w[i] = Double.parseDouble(parts[i]);
+		}
+		return w;
+	}
+
+	@Override
+	public String toString(){
+		return String.format(Locale.ROOT, "iteration %d: current %s (%.1f), best %s (%.1f)", iteration,
+				format(current), currentScore, best==null? "-" : format(best), bestScore);
+	}
+
+	private static String format(double[] weights){
+		return String.format(Locale.ROOT, "%.4f %.4f %.4f", weights[0], weights[1], weights[2]);
+	}
+
+	/** Runs tuner from command line, resuming from checkpoint file if it exists.
+	 * Arguments: checkpoint file [iterations [depth [games [seed]]]]. Prints best weights in the form
+	 * taken by {@link SelfPlay#main(String[])}
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length<1) {
+			System.err.println("Usage: WeightTuner checkpoint [iterations] [depth] [games] [seed]");
+			return;
+		}
+		Path checkpoint = Paths.get(args[0]);
+		int iterations = args.length>1? Integer.parseInt(args[1]) : 100;
+		int depth = args.length>2? Integer.parseInt(args[2]) : 3;
+		int games = args.length>3? Integer.parseInt(args[3]) : 50;
+		long seed = args.length>4? Long.parseLong(args[4]) : 0;
+		WeightTuner tuner = new WeightTuner(depth, games, seed, Runtime.getRuntime().availableProcessors());
+		if (Files.exists(checkpoint)) {
+			tuner.resume(checkpoint);
+			System.out.println("Resumed at " + tuner);
+		}
+		double[] best = tuner.run(iterations, checkpoint, System.out::println);
+		System.out.printf(Locale.ROOT, "Best weights after %d iterations, mean score %.1f over %d games at depth %d:%n",
+				tuner.getIteration(), tuner.getBestScore(), games, depth);
+		System.out.println(Arrays.toString(best));
+		System.out.printf(Locale.ROOT, "java pmr.threes.SelfPlay %d %d selfplay.json %d %s%n", games, depth, seed, format(best));
+	}
+
+}
@@ -90,6 +90,7 @@ public class Console {
 			
 			System.out.println("\nStep= " + step++ + " Current state: " + state);			
 		}
+		game.close();
 		scanner.close();
 	}
 
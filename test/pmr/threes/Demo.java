@@ -3,6 +3,10 @@
  */
 package pmr.threes;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+
 /** Runs demo of game using optimal move choices and monte-carlo simulation
  * @author Peter Rimshnick
  *
@@ -13,8 +17,18 @@ public class Demo {
 		doIter(args);
 	}
 	
+	/** Plays demo game
+	 * @param args depth (default 5), and file to log steps of game to (default none)
+	 * @return final state
+	 */
 	public static State doIter(String[] args){
 		int depth = (args.length==0?5:Integer.parseInt(args[0]));
+		GameLogWriter log = null;
+		try {
+			if (args.length>1) log = new GameLogWriter(Paths.get(args[1]));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
 		int[][] board = {{0,1,3,3},{3,2,0,1},{2,0,0,1},{0,0,0,1}};
 		RegularHoleCard holeCard = new RegularHoleCard(2);
 		State state = new State(board, holeCard);	
@@ -23,7 +37,9 @@ public class Demo {
 		int step = 0;
 		while(true) {
 			long start = System.currentTimeMillis();
+			long startNanos = System.nanoTime();
 			currChoice = game.findBestMove(state);
+			if (log!=null) log.write(0, state, currChoice, System.nanoTime()-startNanos);
 			if (currChoice.isEmptyChoice()) break;
 			state = new State(ThreesGame.pickState(currChoice.getMove().findEndStatesForSim()));
 			double time = (double)(System.currentTimeMillis()-start)/1000;
@@ -32,6 +48,14 @@ public class Demo {
 			System.out.println("Current board score: " + ThreesGame.getBoardScore(state.getBoard()));
 			System.out.println("Current state: " + state);
 		}		
+		game.close();
+		if (log!=null) {
+			try {
+				log.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
 		System.out.println("Final state: " + state + "Score: " + ThreesGame.getBoardScore(state.getBoard()));
 		return state;
 	}
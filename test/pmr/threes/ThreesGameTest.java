@@ -3,7 +3,30 @@
  */
 package pmr.threes;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
@@ -49,6 +72,7 @@ public class ThreesGameTest {
 			System.out.println("Last Move: " + currChoice.getMove() + " ("+String.format("%4.2f", time)+" sec)");
 			System.out.println("Current state: " + state);
 		}		
+		game.close();
 		System.out.println("Final state: " + state + "Score: " + ThreesGame.getBoardScore(state.getBoard()));
 		
 	}
@@ -85,6 +109,708 @@ public class ThreesGameTest {
 	}
 	
 	
+	@Test
+	public void testPackedBoard(){
+		int[][] board = {{0, 1, 2, 3},{6, 12, 24, 48},{96, 192, 384, 768},{1536, 3072, 6144, 0}};
+		long packed = PackedBoard.pack(board);
+		assertTrue(Arrays.deepEquals(board, PackedBoard.unpack(packed)));
+		int[][] transpose = {{0, 6, 96, 1536},{1, 12, 192, 3072},{2, 24, 384, 6144},{3, 48, 768, 0}};
+		assertTrue(Arrays.deepEquals(transpose, PackedBoard.unpack(PackedBoard.transpose(packed))));
+		assertEquals(packed, PackedBoard.transpose(PackedBoard.transpose(packed)));
+		assertEquals(14, PackedBoard.maxRank(packed));
+		assertEquals(new Board(board), new Board(packed));
+	}
+	
+	@Test
+	public void testMoveKernel(){
+		int[][] board = {{1,0,1,3},{1,2,1,3},{3,3,3,1},{12,3,2,1}};
+		int[][] left = {{1,1,3,0},{3,1,3,0},{6,3,1,0},{12,3,3,0}};
+		int[][] right = {{0,1,1,3},{0,1,3,3},{0,3,6,1},{0,12,3,3}};
+		long packed = PackedBoard.pack(board);
+		assertTrue(Arrays.deepEquals(left, PackedBoard.unpack(MoveKernel.moveLeft(packed))));
+		assertTrue(Arrays.deepEquals(right, PackedBoard.unpack(MoveKernel.moveRight(packed))));
+		assertEquals(0xF, PackedBoard.changedRows(packed, MoveKernel.moveRight(packed)));
+		long stuck = PackedBoard.pack(new int[][]{{1,0,1,3},{1,3,1,3},{3,3,3,1},{12,3,2,1}});
+		assertEquals(0xD, PackedBoard.changedRows(stuck, MoveKernel.moveRight(stuck)));
+		assertEquals(PackedBoard.transpose(MoveKernel.moveLeft(PackedBoard.transpose(packed))), MoveKernel.moveUp(packed));
+		assertEquals(0, MoveKernel.RIGHT[PackedBoard.getRow(stuck, 1)] & MoveKernel.CHANGED);
+	}
+	
+	@Test
+	public void testTranspositionTable(){
+		int[][] board = {{12,3,2,1},{48,2,12,3},{96,6,96,2},{3,24,3,3}};
+		State start = new State(board, new RegularHoleCard(1));
+		ThreesGame game = new ThreesGame(3,.39,.47,.14,1<<20);
+		TranspositionTable table = game.getTranspositionTable();
+		Choice first = game.findBestMove(start);
+		assertTrue(table.getMisses()>0);
+		long hits = table.getHits();
+		Choice second = game.findBestMove(start);
+		assertEquals(hits+1, table.getHits());
+		assertEquals(first.getMove().toString(), second.getMove().toString());
+		//same probability, so stored value is returned as is
+		assertEquals(first.getValue(), second.getValue(), 0);
+		game.close();
+		assertNull(new ThreesGame(3,.39,.47,.14,0).getTranspositionTable());
+	}
+	
+	@Test
+	public void testDeck(){
+		Deck deck = Deck.of(4, 4, 4, 5);
+		assertEquals(13, deck.size());
+		assertEquals(new RegularHoleCard(1), deck.cardAt(0));
+		assertEquals(new RegularHoleCard(3), deck.cardAt(11));
+		assertEquals(Arrays.asList(3, 6, 12), ((AmbiguousHoleCard)deck.cardAt(12)).getPossibleAdditions());
+		Deck smaller = deck.remove(new RegularHoleCard(2)).remove(deck.cardAt(12));
+		assertSame(Deck.of(4, 3, 4, 0), smaller);
+		assertEquals(11, smaller.size());
+		assertEquals(0, smaller.getBonusRank());
+		assertTrue(Deck.of(0, 0, 0, 0).isEmpty());
+		int[][] board = {{0, 0, 0, 2},{3, 48,48, 12},{1, 3,384, 0},{2, 0, 0, 3}};
+		Deck stack = ThreesGame.generateCardStack(new Board(board));
+		assertTrue(stack.getBonusRank()==0 || stack.getBonusRank()==PackedBoard.rankOf(384/8));
+	}
+	
+	@Test
+	public void testEvaluator(){
+		java.util.Random random = new java.util.Random(0);
+		Board root = new Board(new int[][]{{0, 0, 0, 2},{3, 48,48, 12},{1, 3,384, 0},{2, 0, 0, 3}});
+		Evaluator evaluator = new DefaultEvaluator(.39, .47, .14).forRoot(root);
+		for (int n = 0; n<1000; n++){
+			int[][] board = new int[4][4];
+			for (int i = 0; i<4; i++){
+				for (int j = 0; j<4; j++){
+					board[i][j] = PackedBoard.valueOf(random.nextInt(10));
+				}
+			}
+			//straightforward version of the three features
+			double boardScore = 0;
+			int free = 0;
+			int matchable = 0;
+			for (int i = 0; i<4; i++){
+				for (int j = 0; j<4; j++){
+					int cell = board[i][j];
+					if (cell>2) boardScore += Math.pow(3, Math.log(cell/3)/Math.log(2)+1);
+					if (cell==0) free++;
+					if (i>0 && ThreesGame.canMatch(cell, board[i-1][j])) matchable++;
+					if (i<3 && ThreesGame.canMatch(cell, board[i+1][j])) matchable++;
+					if (j>0 && ThreesGame.canMatch(cell, board[i][j-1])) matchable++;
+					if (j<3 && ThreesGame.canMatch(cell, board[i][j+1])) matchable++;
+				}
+			}
+			double expected = ThreesGame.getBoardScore(root)/boardScore*.39 + free*.47 + matchable*.14;
+			assertEquals(expected, evaluator.evaluate(new State(board, new RegularHoleCard(1))), 0);
+		}
+	}
+	
+	@Test
+	public void testAnytimeSearch(){
+		int[][] board = {{0, 0, 0, 2},{3, 48,48, 12},{1, 3,384, 0},{2, 0, 0, 3}};
+		State start = new State(board, new RegularHoleCard(2));
+		ThreesGame game = new ThreesGame(5,.39,.47,.14);
+		Choice quick = game.findBestMove(start, Duration.ZERO);
+		assertFalse(quick.isEmptyChoice());
+		assertEquals(1, quick.getDepth());
+		long startTime = System.nanoTime();
+		Choice timed = game.findBestMove(start, Duration.ofMillis(300));
+		assertTrue(System.nanoTime()-startTime < 2000000000L);
+		assertTrue(timed.getDepth()>=2);
+		assertEquals(5, game.findBestMove(start).getDepth());
+		game.close();
+	}
+	
+	@Test
+	public void testBatch(){
+		List<State> starts = new ArrayList<State>();
+		starts.add(new State(new int[][]{{0,1,3,3},{3,2,0,1},{2,0,0,1},{0,0,0,1}}, new RegularHoleCard(2)));
+		starts.add(new State(new int[][]{{12,3,2,1},{48,2,12,3},{96,6,96,2},{3,24,3,3}}, new RegularHoleCard(1)));
+		starts.add(new State(new int[][]{{3,1,3,1},{1,3,1,3},{3,1,3,1},{1,3,1,3}}, new RegularHoleCard(3)));
+		ThreesGame game = new ThreesGame(3,.39,.47,.14);
+		List<Choice> choices = game.findBestMoves(starts);
+		assertEquals(3, choices.size());
+		assertEquals(3, choices.get(0).getDepth());
+		assertFalse(choices.get(1).isEmptyChoice());
+		assertTrue(choices.get(2).isEmptyChoice());
+		assertEquals(2, game.findBestMoves(starts.stream().limit(2)).size());
+		game.close();
+	}
+	
+	@Test
+	public void testSeededSearch(){
+		State start = new State(new int[][]{{12,3,2,1},{48,2,12,3},{96,6,0,2},{3,0,3,1}}, Deck.of(1,0,2,0), new RegularHoleCard(2), 1.0);
+		ForkJoinPool single = new ForkJoinPool(1);
+		ForkJoinPool many = new ForkJoinPool(4);
+		ThreesGame game1 = new ThreesGame(5,.39,.47,.14,0,single);
+		ThreesGame game2 = new ThreesGame(5,.39,.47,.14,0,many);
+		ThreesGame game3 = new ThreesGame(5,.39,.47,.14,ThreesGame.DEFAULT_TABLE_BYTES,many);
+		for (long seed = 1; seed<=3; seed++){
+			game1.setSeed(seed);
+			game2.setSeed(seed);
+			game3.setSeed(seed);
+			Choice c1 = game1.findBestMove(start);
+			Choice c2 = game2.findBestMove(start);
+			Choice c3 = game3.findBestMove(start);
+			assertEquals(c1.getMove().getClass(), c2.getMove().getClass());
+			assertEquals(c1.getValue(), c2.getValue(), 0);
+			assertEquals(c1.getMove().getClass(), c3.getMove().getClass());
+			assertEquals(c1.getValue(), c3.getValue(), 1e-9*Math.abs(c1.getValue()));
+		}
+		single.shutdown();
+		many.shutdown();
+	}
+	
+	@Test
+	public void testPruning(){
+		int[][][] boards = {{{0,1,3,3},{3,2,0,1},{2,0,0,1},{0,0,0,1}}, {{0,0,0,2},{3,48,48,12},{1,3,384,0},{2,0,0,3}}, {{6,3,2,1},{12,2,0,3},{24,0,0,0},{3,0,1,0}}};
+		ThreesGame game = new ThreesGame(4,.39,.47,.14,0);
+		ThreesGame pruned = new ThreesGame(4,.39,.47,.14,0);
+		pruned.setPruning(true);
+		long prunedNodes = 0;
+		for (int[][] board: boards){
+			State start = new State(board, Deck.of(3,2,4,0), new RegularHoleCard(2), 1.0);
+			Choice c = game.findBestMove(start);
+			Choice p = pruned.findBestMove(start);
+			assertEquals(c.getMove().getClass(), p.getMove().getClass());
+			assertEquals(c.getValue(), p.getValue(), 0);
+			assertEquals(0, c.getStats().getPrunedNodes());
+			prunedNodes += p.getStats().getPrunedNodes();
+			//bound holds for every state reachable within depth
+			Evaluator eval = game.getEvaluator().forRoot(start.getBoard());
+			double upper = eval.upperBound(start, 2);
+			for (Move m: new Move[]{new Left(start), new Right(start), new Up(start), new Down(start)}){
+				for (State s1: m.findEndStatesForSim()){
+					assertTrue(eval.evaluate(s1)<=upper);
+					for (State s2: new Left(s1).findEndStatesForSim()){
+						assertTrue(eval.evaluate(s2)<=upper);
+					}
+				}
+			}
+		}
+		assertTrue(prunedNodes>0);
+		game.close();
+		pruned.close();
+	}
+	
+	@Test
+	public void testMinProbability(){
+		State start = new State(new int[][]{{12,3,2,1},{48,2,12,3},{96,6,0,2},{3,0,3,1}}, Deck.of(1,0,2,0), new RegularHoleCard(2), 1.0);
+		ThreesGame game = new ThreesGame(5,.39,.47,.14);
+		Choice full = game.findBestMove(start);
+		assertEquals(0, full.getStats().getCutNodes());
+		game.setMinProbability(.1);
+		Choice cut = game.findBestMove(start);
+		assertTrue(cut.getStats().getCutNodes()>0);
+		assertFalse(cut.isEmptyChoice());
+		//root is never cut, whatever its probability, and cuts are relative to it
+		game.setMinProbability(1);
+		assertFalse(game.findBestMove(start).isEmptyChoice());
+		game.setMinProbability(.1);
+		State unlikely = new State(start.getBoard(), start.getCardStack(), start.getHoleCard(), .01);
+		Choice scaled = game.findBestMove(unlikely);
+		assertEquals(cut.getMove().toString(), scaled.getMove().toString());
+		assertEquals(cut.getStats().getCutNodes(), scaled.getStats().getCutNodes());
+		assertEquals(cut.getValue()*.01, scaled.getValue(), 1e-9*Math.abs(cut.getValue()));
+		game.close();
+	}
+
+	@Test
+	public void testMinProbabilityTable(){
+		ForkJoinPool single = new ForkJoinPool(1);
+		ForkJoinPool several = new ForkJoinPool(4);
+		try (ThreesGame off = new ThreesGame(4, new DefaultEvaluator(.39,.47,.14), 0, single);
+				ThreesGame on = new ThreesGame(4, new DefaultEvaluator(.39,.47,.14), ThreesGame.DEFAULT_TABLE_BYTES, single);
+				ThreesGame parallel = new ThreesGame(4, new DefaultEvaluator(.39,.47,.14), ThreesGame.DEFAULT_TABLE_BYTES, several)){
+			long hits = 0;
+			for (ThreesGame game: new ThreesGame[]{off, on, parallel}){
+				game.setMinProbability(.01);
+			}
+			for (int i = 0; i<12; i++){
+				State start = SelfPlay.randomStart(new Random(i));
+				Choice expected = off.findBestMove(start);
+				Choice cached = on.findBestMove(start);
+				hits += cached.getStats().getTableHits();
+				//a subtree is only reused where it would be cut the same way
+				assertEquals(expected.getValue(), cached.getValue(), 0);
+				assertEquals(expected.getValue(), parallel.findBestMove(start).getValue(), 0);
+				assertEquals(expected.getMove().toString(), cached.getMove().toString());
+			}
+			assertTrue(hits>0);
+		} finally {
+			single.shutdown();
+			several.shutdown();
+		}
+	}
+	
+	@Test
+	public void testMergeDuplicates(){
+		Board b1 = new Board(new int[][]{{0,1,3,3},{3,2,0,1},{2,0,0,1},{0,0,0,1}});
+		Board b2 = new Board(new int[][]{{1,1,3,3},{3,2,0,1},{2,0,0,1},{0,0,0,1}});
+		Deck deck = Deck.of(2,2,2,0);
+		State[] states = {new State(b1, deck, new RegularHoleCard(1), .25), new State(b2, deck, new RegularHoleCard(1), .25),
+				new State(b1, deck, new RegularHoleCard(1), .125), new State(b1, deck, new RegularHoleCard(2), .125),
+				new State(b1, Deck.of(2,2,1,0), new RegularHoleCard(1), .125), new State(b2, deck, new RegularHoleCard(1), .125)};
+		State[] merged = AbstractMove.mergeDuplicates(states);
+		assertEquals(4, merged.length);
+		assertEquals(b1, merged[0].getBoard());
+		assertEquals(.375, merged[0].getProbability(), 0);
+		assertEquals(.375, merged[1].getProbability(), 0);
+		assertSame(states[3], merged[2]);
+		assertSame(states[4], merged[3]);
+		State[] distinct = new Left(states[0]).findEndStatesForSearch();
+		assertSame(distinct, AbstractMove.mergeDuplicates(distinct));
+	}
+	
+	@Test
+	public void testIncrementalFeatures(){
+		State start = new State(new Board(new int[][]{{0,1,3,6},{3,2,12,1},{2,0,0,1},{0,6,0,1}}), Deck.of(2,3,1,0), new RegularHoleCard(3), 1);
+		for (Move m: new Move[]{new Left(start), new Right(start), new Up(start), new Down(start)}){
+			for (State s: m.findEndStatesForSearch()){
+				long board = s.getBoard().getPackedBoard();
+				assertEquals(DefaultEvaluator.features(board), s.getFeatures());
+				assertEquals(DefaultEvaluator.getBoardScore(board), s.getBoardScore(), 1e-9);
+				for (State t: new Up(s).findEndStatesForSim(new SplittableRandom(1))){
+					long next = t.getBoard().getPackedBoard();
+					assertEquals(DefaultEvaluator.features(next), t.getFeatures());
+					assertEquals(DefaultEvaluator.getBoardScore(next), t.getBoardScore(), 1e-9);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testOutcomes(){
+		State start = new State(new Board(new int[][]{{0,1,3,6},{3,2,12,1},{2,0,0,1},{0,6,0,1}}), Deck.of(1,1,2,0), new RegularHoleCard(3), 1);
+		for (int samples: new int[]{SamplingPolicy.EXACT, 1, 4}){
+			for (Move m: new Move[]{new Left(start), new Right(start), new Up(start), new Down(start)}){
+				State[] expected = AbstractMove.mergeDuplicates(m.findEndStatesForSearch(new SplittableRandom(7), samples));
+				Outcomes outcomes = m.outcomes(new SplittableRandom(7), samples);
+				if (expected.length==1 && expected[0]==start){
+					assertEquals(0, outcomes.remaining());
+					assertNull(outcomes.next());
+					continue;
+				}
+				assertEquals(1, outcomes.probability(), 1e-12);
+				for (State e: expected){
+					assertTrue(outcomes.remaining()>0);
+					State s = outcomes.next();
+					assertEquals(e.getBoard(), s.getBoard());
+					assertSame(e.getHoleCard(), s.getHoleCard());
+					assertEquals(e.getCardStack(), s.getCardStack());
+					assertEquals(e.getProbability(), s.getProbability(), 0);
+				}
+				assertNull(outcomes.next());
+				assertEquals(0, outcomes.remaining());
+			}
+		}
+	}
+
+	@Test
+	public void testSamplingPolicy(){
+		Deck full = Deck.of(1,1,1,3);
+		assertEquals(SamplingPolicy.EXACT, SamplingPolicy.of(SamplingPolicy.EXACT, 1).samples(0, full));
+		assertEquals(1, SamplingPolicy.of(SamplingPolicy.EXACT, 1).samples(5, full));
+		assertEquals(3, SamplingPolicy.of(3).samples(0, full));
+		assertEquals(SamplingPolicy.EXACT, SamplingPolicy.of(3).samples(0, Deck.of(2,0,1,0)));
+		assertEquals(SamplingPolicy.EXACT, SamplingPolicy.of(3).withExactKinds(4).samples(0, full));
+		assertEquals(1, SamplingPolicy.SINGLE.samples(0, Deck.of(0,0,2,0)));
+		
+		State start = new State(new int[][]{{0,1,3,3},{3,2,0,1},{2,0,0,1},{0,0,0,1}}, Deck.of(1,2,1,0), new RegularHoleCard(2), 1.0);
+		State[] exact = new Left(start).findEndStatesForSearch(new SplittableRandom(1), SamplingPolicy.EXACT);
+		State[] sampled = new Left(start).findEndStatesForSearch(new SplittableRandom(1), 5);
+		assertEquals(exact.length, 3*new Left(start).findEndStatesForSearch().length);
+		assertEquals(5*exact.length/3, sampled.length);
+		double exactSum = 0, sampledSum = 0;
+		for (State s: exact) exactSum += s.getProbability();
+		for (State s: sampled) sampledSum += s.getProbability();
+		assertEquals(1, exactSum, 1e-12);
+		assertEquals(1, sampledSum, 1e-12);
+		
+		ThreesGame game = new ThreesGame(3,.39,.47,.14);
+		game.setSamplingPolicy(SamplingPolicy.of(SamplingPolicy.EXACT, 2));
+		Choice c = game.findBestMove(new State(start.getBoard(), Deck.of(4,4,4,0), new RegularHoleCard(2), 1.0));
+		assertFalse(c.isEmptyChoice());
+		assertTrue(c.getStats().getMergedNodes()>0);
+		game.close();
+	}
+	
+	@Test
+	public void testSearchStats(){
+		State start = new State(new int[][]{{0,1,3,3},{3,2,0,1},{2,0,0,1},{0,0,0,1}}, Deck.of(2,2,2,0), new RegularHoleCard(1), 1.0);
+		long searches = SearchMetrics.getInstance().getSearches();
+		try (ThreesGame game = new ThreesGame(3)){
+			game.setProfiling(true);
+			SearchStats stats = game.findBestMove(start).getStats();
+			assertEquals(1, stats.getNodes(0));
+			assertEquals(3, stats.getMaxPly());
+			assertEquals(stats.getNodes(3), stats.getLeafEvaluations());
+			assertTrue(stats.getEffectiveBranchingFactor()>1);
+			assertTrue(stats.getNodesPerSecond()>0);
+			assertTrue(stats.getQueuedTasks()>=1);
+			assertTrue(stats.getMoveGenerationNanos()>0);
+			assertTrue(stats.getEvaluationNanos()>0);
+			assertEquals(stats.getNodes()-stats.getLeafEvaluations(), stats.getTableProbes());
+			SearchStats again = game.findBestMove(start).getStats();
+			assertEquals(1, again.getTableHits());
+			assertEquals(0, again.getLeafEvaluations());
+		}
+		assertEquals(searches+2, SearchMetrics.getInstance().getSearches());
+	}
+
+	@Test
+	public void testAsyncSearch() throws Exception {
+		State start = new State(new int[][]{{0,1,3,3},{3,2,0,1},{2,0,0,1},{0,0,0,1}}, Deck.of(2,2,2,0), new RegularHoleCard(1), 1.0);
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try (ThreesGame game = new ThreesGame(4, new DefaultEvaluator(.39, .47, .14), 0, pool)){
+			Choice expected = game.findBestMove(start);
+			List<Choice> progress = new ArrayList<Choice>();
+			Choice c = game.findBestMoveAsync(start, progress::add).get();
+			assertEquals(expected.getMove().toString(), c.getMove().toString());
+			assertEquals(expected.getValue(), c.getValue(), 1e-9);
+			assertEquals(4, progress.size());
+			for (int d = 1; d<=4; d++){
+				assertEquals(d, progress.get(d-1).getDepth());
+			}
+
+			//abandoned deep search stops promptly
+			CompletableFuture<Choice> future = new ThreesGame(12, new DefaultEvaluator(.39, .47, .14), 0, pool).findBestMoveAsync(start);
+			Thread.sleep(50);
+			assertTrue(future.cancel(true));
+			assertTrue(future.isCancelled());
+			assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testDecisionServer() throws Exception {
+		String json = "{\"board\":[[0,1,3,3],[3,2,0,1],[2,0,0,1],[0,0,0,1]], \"hole\":1, \"deck\":[2,2,1,0]}";
+		State start = DecisionServer.readJson(json);
+		assertEquals(Deck.of(2,2,1,0), start.getCardStack());
+		try (ThreesGame game = new ThreesGame(3);
+				DecisionServer server = new DecisionServer(game, new InetSocketAddress("localhost", 0), 2, DecisionServer.DEFAULT_MAX_WAIT)){
+			server.start();
+			Choice expected = game.findBestMove(start);
+			URL url = new URL("http://localhost:" + server.getPort() + DecisionServer.PATH);
+			HttpURLConnection conn = (HttpURLConnection)url.openConnection();
+			conn.setRequestMethod("POST");
+			conn.setDoOutput(true);
+			conn.getOutputStream().write(json.getBytes(StandardCharsets.UTF_8));
+			assertEquals(200, conn.getResponseCode());
+			String reply = new String(DecisionServer.readAll(conn.getInputStream()), StandardCharsets.UTF_8);
+			assertTrue(reply, reply.startsWith("{\"move\":\"" + expected.getMove() + "\""));
+
+			ByteBuffer request = ByteBuffer.allocate(13);
+			request.putLong(start.getBoard().getPackedBoard()).put((byte)1).put(new byte[]{2,2,1,0});
+			conn = (HttpURLConnection)url.openConnection();
+			conn.setRequestMethod("POST");
+			conn.setRequestProperty("Content-Type", DecisionServer.BINARY_TYPE);
+			conn.setDoOutput(true);
+			conn.getOutputStream().write(request.array());
+			assertEquals(200, conn.getResponseCode());
+			ByteBuffer binary = ByteBuffer.wrap(DecisionServer.readAll(conn.getInputStream()));
+			assertEquals(TranspositionTable.moveCode(expected.getMove()), binary.get());
+			assertEquals(expected.getValue(), binary.getDouble(), 1e-9);
+
+			for (String bad: new String[]{"{\"board\":[[5]]}", "[1]", "{\"board\":[[0,1,3,3],[3,2,0,1],[2,0,null,1],[0,0,0,1]], \"hole\":1}",
+					"{\"board\":[[0,1,3,3],[3,2,0,1],[2,0,0,1],[0,0,0,1]], \"hole\":[1]}", "{\"board\":[[0,1,3,3],[3,2,0,1],[2,0,0,1],[0,0,0,1]], \"hole\":1, \"deck\":[1,\"x\",1,0]}"}){
+				conn = (HttpURLConnection)url.openConnection();
+				conn.setRequestMethod("POST");
+				conn.setDoOutput(true);
+				conn.getOutputStream().write(bad.getBytes(StandardCharsets.UTF_8));
+				assertEquals(bad, 400, conn.getResponseCode());
+			}
+			conn = (HttpURLConnection)url.openConnection();
+			conn.setRequestMethod("POST");
+			conn.setDoOutput(true);
+			conn.getOutputStream().write(new byte[DecisionServer.MAX_BODY_BYTES+1]);
+			assertEquals(413, conn.getResponseCode());
+		}
+
+		//identical requests share a search, and searches beyond the limit are turned away
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger calls = new AtomicInteger();
+		Engine slow = new Engine() {
+			@Override
+			public Choice findBestMove(State s) {
+				calls.incrementAndGet();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+				return new Choice(new Left(s), 1);
+			}
+
+			@Override
+			public void close() {}
+		};
+		ExecutorService clients = Executors.newFixedThreadPool(4);
+		try (DecisionServer server = new DecisionServer(slow, new InetSocketAddress("localhost", 0), 1, Duration.ofMillis(20))){
+			List<Future<Choice>> results = new ArrayList<Future<Choice>>();
+			for (int i = 0; i<4; i++){
+				results.add(clients.submit(() -> server.decide(start)));
+			}
+			while (server.getCoalesced()<3) Thread.sleep(1);
+			State other = new State(start.getBoard(), start.getCardStack(), new RegularHoleCard(2), 1.0);
+			try {
+				server.decide(other);
+				fail("Expected rejection");
+			} catch (RejectedExecutionException e) {
+				assertEquals(1, server.getRejected());
+			}
+			release.countDown();
+			for (Future<Choice> f: results){
+				assertEquals(1, f.get().getValue(), 0);
+			}
+			assertEquals(1, calls.get());
+			assertEquals(1, server.getSearches());
+		} finally {
+			clients.shutdown();
+		}
+	}
+
+	@Test
+	public void testOpeningBook() throws IOException {
+		Path path = Files.createTempFile("threes", ".book");
+		try (ThreesGame builder = new ThreesGame(2)){
+			int size = OpeningBook.build(path, builder, 20, 2, 1);
+			assertTrue(size>20);
+			assertEquals(OpeningBook.HEADER_BYTES + (long)size*OpeningBook.ENTRY_BYTES, Files.size(path));
+			try (OpeningBook book = OpeningBook.open(path); ThreesGame game = new ThreesGame(2)){
+				assertEquals(size, book.size());
+				assertEquals(2, book.getDepth());
+				for (int i = 0; i<20; i++){
+					State start = SelfPlay.randomStart(new Random(1 + i));
+					Choice expected = builder.findBestMove(start);
+					Choice c = book.lookup(start);
+					assertEquals(expected.getMove().toString(), c.getMove().toString());
+					assertEquals(expected.getValue(), c.getValue(), 1e-9);
+				}
+				State start = SelfPlay.randomStart(new Random(1));
+				game.setOpeningBook(book);
+				Choice c = game.findBestMove(start);
+				assertEquals(1, c.getStats().getBookHits());
+				assertEquals(0, c.getStats().getNodes());
+				State missing = new State(new Board(new int[][]{{0,1,3,3},{3,2,0,1},{2,0,0,1},{0,0,0,1}}), Deck.of(1,2,3,0), new RegularHoleCard(2), 1.0);
+				assertNull(book.lookup(missing));
+				assertEquals(0, game.findBestMove(missing).getStats().getBookHits());
+				try (ThreesGame deeper = new ThreesGame(3)){
+					deeper.setOpeningBook(book);
+					assertEquals(0, deeper.findBestMove(start).getStats().getBookHits());
+				}
+				//book is only used with the settings it was built with
+				assertTrue(book.matches(game));
+				game.setSeed(7);
+				assertFalse(book.matches(game));
+				assertEquals(0, game.findBestMove(start).getStats().getBookHits());
+				game.setSeed(ThreesGame.DEFAULT_SEED);
+				game.setMinProbability(.01);
+				assertEquals(0, game.findBestMove(start).getStats().getBookHits());
+				game.setMinProbability(0);
+				game.setSamplingPolicy(SamplingPolicy.of(2));
+				assertEquals(0, game.findBestMove(start).getStats().getBookHits());
+				game.setSamplingPolicy(SamplingPolicy.SINGLE);
+				game.setPruning(true);
+				assertFalse(book.matches(game));
+				game.setPruning(false);
+				assertEquals(1, game.findBestMove(start).getStats().getBookHits());
+				try (ThreesGame other = new ThreesGame(2, .5, .5, 0)){
+					other.setOpeningBook(book);
+					assertEquals(0, other.findBestMove(start).getStats().getBookHits());
+				}
+			}
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	@Test
+	public void testGameLog() throws IOException {
+		Path path = Files.createTempFile("threes", ".log");
+		try (ThreesGame game = new ThreesGame(2)){
+			SelfPlay selfPlay = new SelfPlay(game, 2);
+			try (GameLogWriter log = new GameLogWriter(path)){
+				selfPlay.setLog(log);
+				SelfPlay.Summary summary = selfPlay.run(2, 5);
+				int moves = summary.games.get(0).moves + summary.games.get(1).moves;
+				log.flush();
+				assertEquals(moves + 2, log.getRecords());
+				//more records than fit in one buffer
+				State s = summary.games.get(0).finalState;
+				for (int i = 0; i<5000; i++){
+					log.write(7, s, Choice.getEmptyChoice(), i*1000L);
+				}
+			}
+			try (GameLogReader reader = new GameLogReader(path)){
+				GameRecord first = reader.next();
+				assertTrue(first.getGame()==5 || first.getGame()==6);
+				assertEquals(new StateKey(SelfPlay.randomStart(new Random(first.getGame()))), new StateKey(first.getState()));
+				assertEquals(first.getMove(), TranspositionTable.moveCode(game.findBestMove(first.getState()).getMove()));
+				int[] ends = new int[8];
+				long records = 1;
+				for (GameRecord r: reader){
+					records++;
+					if (r.getMove()==GameRecord.NO_MOVE){
+						assertTrue(Double.isNaN(r.getValue()));
+						ends[(int)r.getGame()]++;
+					}
+					else assertFalse(Double.isNaN(r.getValue()));
+					if (r.getGame()==7) assertEquals((ends[7]-1)*1000L, r.getDecisionNanos());
+				}
+				assertEquals(1, ends[5]);
+				assertEquals(1, ends[6]);
+				assertEquals(5000, ends[7]);
+				assertEquals(GameLogWriter.HEADER_BYTES + records*GameRecord.BYTES, Files.size(path));
+			}
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	@Test
+	public void testGameLogRoundTrip() throws IOException {
+		Path path = Files.createTempFile("threes", ".log");
+		List<State> states = new ArrayList<State>();
+		try (ThreesGame game = new ThreesGame(1); GameLogWriter log = new GameLogWriter(path)){
+			for (long seed = 0; seed<4; seed++){
+				Random random = new Random(seed);
+				State state = SelfPlay.randomStart(random);
+				while (true){
+					Choice c = game.findBestMove(state);
+					states.add(state);
+					log.write(seed, state, c, 0);
+					if (c.isEmptyChoice()) break;
+					state = new State(ThreesGame.pickState(c.getMove().findEndStatesForSim(new SplittableRandom(random.nextLong())), random));
+				}
+			}
+		}
+		try (GameLogReader reader = new GameLogReader(path)){
+			int bonus = 0;
+			for (State state: states){
+				GameRecord r = reader.next();
+				//bonus cards keep the range they were drawn with, not the one of the current board
+				assertEquals(state, r.getState());
+				if (state.getHoleCard() instanceof AmbiguousHoleCard){
+					bonus++;
+					assertEquals(0, r.getHoleCard());
+					assertTrue(r.getBonusRank()>0);
+				}
+			}
+			assertNull(reader.next());
+			assertTrue(bonus>0);
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	@Test
+	public void testDecisionRegression() throws IOException {
+		Path path = Files.createTempFile("threes", ".log");
+		try {
+			try (ThreesGame game = new ThreesGame(2, .39, .47, .14); GameLogWriter log = new GameLogWriter(path)){
+				SelfPlay selfPlay = new SelfPlay(game, 1);
+				selfPlay.setLog(log);
+				selfPlay.playGame(3);
+			}
+			List<GameRecord> corpus = DecisionRegression.readCorpus(path, Integer.MAX_VALUE);
+			assertEquals(40, DecisionRegression.readCorpus(path, 40).size());
+			int bonus = 0;
+			for (GameRecord r: corpus){
+				if (r.getBonusRank()>0) bonus++;
+			}
+			//bonus hole positions are replayed with the card they were played with
+			assertTrue(bonus>0);
+			try (ThreesGame game = new ThreesGame(2, .39, .47, .14)){
+				DecisionRegression.Summary summary = new DecisionRegression(game, 2).run(corpus);
+				assertEquals(corpus.size(), summary.results.size());
+				assertEquals(1.0, summary.getAgreementRate(), 0);
+				assertEquals(0, summary.getMaxAbsValueDelta(), 1e-9);
+				assertTrue(summary.getSpeedup()>0);
+				StringWriter json = new StringWriter();
+				summary.writeJson(json, "test");
+				assertTrue(json.toString().contains("\"agreementRate\": 1.0000"));
+			}
+			try (ThreesGame game = new ThreesGame(2, 1, 0, 0)){
+				DecisionRegression.Summary summary = new DecisionRegression(game, 2).run(corpus);
+				assertTrue(summary.getMaxAbsValueDelta()>0);
+			}
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	@Test
+	public void testWeightTuner() throws IOException {
+		Path path = Files.createTempFile("threes", ".tuner");
+		try {
+			WeightTuner straight = new WeightTuner(1, 2, 11, 2);
+			double[] best = straight.run(3, null);
+			assertEquals(1.0, best[0]+best[1]+best[2], 1e-9);
+			assertEquals(straight.score(best, ForkJoinPool.commonPool()), straight.getBestScore(), 0);
+			WeightTuner interrupted = new WeightTuner(1, 2, 11, 2);
+			interrupted.run(2, path);
+			WeightTuner resumed = new WeightTuner(1, 2, 11, 2);
+			resumed.resume(path);
+			assertEquals(2, resumed.getIteration());
+			assertArrayEquals(best, resumed.run(3, path), 0);
+			assertEquals(straight.getBestScore(), resumed.getBestScore(), 0);
+			try {
+				new WeightTuner(2, 2, 11, 2).resume(path);
+				fail();
+			} catch (IllegalArgumentException e) {
+				//checkpoint of other depth
+			}
+		} finally {
+			Files.deleteIfExists(path);
+		}
+	}
+
+	@Test
+	public void testMcts(){
+		State start = new State(new int[][]{{0,1,3,3},{3,2,0,1},{2,0,0,1},{0,0,0,1}}, Deck.of(1,2,1,0), new RegularHoleCard(2), 1.0);
+		MctsEngine engine = new MctsEngine(new DefaultEvaluator(.39,.47,.14), 2, null);
+		engine.setIterations(400);
+		Choice c1 = engine.findBestMove(start);
+		Choice c2 = engine.findBestMove(start);
+		assertFalse(c1.isEmptyChoice());
+		assertEquals(c1.getMove().getClass(), c2.getMove().getClass());
+		assertEquals(c1.getValue(), c2.getValue(), 0);
+		State stuck = new State(new int[][]{{3,1,3,1},{1,3,1,3},{3,1,3,1},{1,3,1,3}}, new RegularHoleCard(3));
+		assertTrue(engine.findBestMove(stuck).isEmptyChoice());
+		engine.setIterations(0);
+		engine.setTimeBudget(Duration.ofMillis(50));
+		assertFalse(engine.findBestMove(start).isEmptyChoice());
+		engine.close();
+	}
+	
+	@Test
+	public void testSelfPlay() throws IOException {
+		State start = SelfPlay.randomStart(new Random(5));
+		assertEquals(SelfPlay.START_CARDS, 16-countEmpty(start.getBoard().getPackedBoard()));
+		assertEquals(SelfPlay.START_CARDS+1, 12-start.getCardStack().size());
+		ThreesGame game = new ThreesGame(1,.39,.47,.14);
+		SelfPlay.Summary summary = new SelfPlay(game, 2).run(3, 11);
+		game.close();
+		assertEquals(3, summary.games.size());
+		for (SelfPlay.GameResult g: summary.games){
+			assertTrue(g.moves>0);
+			assertEquals(g.moves, g.decisionNanos.length);
+		}
+		assertTrue(summary.getMaxTile()>=summary.games.get(0).maxTile);
+		StringWriter json = new StringWriter();
+		summary.writeJson(json, "depth=1");
+		assertTrue(json.toString().contains("\"games\": 3"));
+	}
+	
+	private static int countEmpty(long board){
+		int empty = 0;
+		for (int k = 0; k<16; k++){
+			if (((board>>>(k<<2)) & 0xF)==0) empty++;
+		}
+		return empty;
+	}
+	
 	public void testBoardScore(){
 		System.out.println("\nBoard Test");
 		int[][] boardArray = {{1,1,3,2},{1,48,6,3},{6,1,12,2},{2,24,6,3}};